@@ -10,14 +10,19 @@ import java.util.LinkedHashMap;
 import java.nio.charset.Charset;
 
 public class API {
+
+   // where the GitHub calls go, e.g. -Dgithub.baseUrl=http://127.0.0.1:9100/ for the
+   // local stand-in of Sockets/WebServer (gradle UpstreamStub) when there is no network
+   static final String GITHUB_BASE_URL = System.getProperty("github.baseUrl", "https://api.github.com/");
+
    public static void main(final String args[]) {
 
 
       try {
 
-         //System.out.println(fetchURL("https://api.github.com/rate_limit")); // in case you need to check your rate limit
+         //System.out.println(fetchURL(GITHUB_BASE_URL + "rate_limit")); // in case you need to check your rate limit
          String user = args[0];
-         String json = fetchURL("https://api.github.com/users/" + user + "/repos"); // fetching the JSON reply
+         String json = fetchURL(GITHUB_BASE_URL + "users/" + user + "/repos"); // fetching the JSON reply
          System.out.println(json); // printing it so you see how it looks like 
          
          // saving it as JSON array (if it sere not an array it woudl need to be a JSONObject)
@@ -48,7 +53,7 @@ public class API {
 
 
             // fetch all the branches from the repo and save and branches JSONArray
-            String jsonBranches = fetchURL("https://api.github.com/repos/" + user + "/" + repoName + "/branches");
+            String jsonBranches = fetchURL(GITHUB_BASE_URL + "repos/" + user + "/" + repoName + "/branches");
             JSONArray branches = new JSONArray(jsonBranches);
 
             // create a new branch JSON object
@@ -14,9 +14,18 @@ import java.util.*;
  * @version April 2020
  */
 public class StudentCollectionTCPJsonRPCServer extends Thread {
+   // on shutdown, how long the calls in progress may take before the server exits anyway
+   static final long SHUTDOWN_GRACE_MS = 10_000;
+   private static final Set<StudentCollectionTCPJsonRPCServer> active =
+      Collections.synchronizedSet(new HashSet<>());
+   private static volatile boolean shuttingDown = false;
+
    private Socket conn;
    private int id;
    private StudentCollectionSkeleton skeleton;
+   // true once the request arrived, the shutdown lets it be answered
+   private boolean busy = false;
+   private boolean closed = false;
 
    public StudentCollectionTCPJsonRPCServer (Socket sock, int id,
                                              StudentCollection stdCol) {
@@ -34,7 +43,7 @@ public class StudentCollectionTCPJsonRPCServer extends Thread {
          
          // receive request
          int numr = inSock.read(clientInput,0,1024);
-         if (numr != -1) {
+         if (numr != -1 && startRequest()) {
             //System.out.println("read "+numr+" bytes");
             String request = new String(clientInput,0,numr);
             System.out.println("request is: "+request);
@@ -49,8 +58,72 @@ public class StudentCollectionTCPJsonRPCServer extends Thread {
          outSock.close();
          conn.close();
       } catch (IOException e) {
-         System.out.println("I/O exception occurred for the connection:\n"+e.getMessage());
+         if (!isClosed()) {
+            System.out.println("I/O exception occurred for the connection:\n"+e.getMessage());
+         }
+      } finally {
+         active.remove(this);
+      }
+   }
+
+   private synchronized boolean startRequest() {
+      busy = !closed;
+      return busy;
+   }
+
+   private synchronized boolean isClosed() {
+      return closed;
+   }
+
+   /**
+    * Called on shutdown: a client that has not sent its request yet is
+    * disconnected, a call in progress is left to finish
+    */
+   private synchronized void closeIfIdle() {
+      if (!busy && !closed) {
+         closed = true;
+         try {
+            conn.close();
+         } catch (IOException e) {
+            System.out.println("Closing client "+id+" failed: "+e.getMessage());
+         }
+      }
+   }
+
+   /**
+    * Graceful shutdown, run by the JVM's shutdown hook: stops accepting,
+    * closes idle clients and waits up to SHUTDOWN_GRACE_MS for the calls
+    * in progress.
+    */
+   static void shutdown(ServerSocket serv) {
+      shuttingDown = true;
+      try {
+         serv.close(); // accept() throws, main ends
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+      List<StudentCollectionTCPJsonRPCServer> open;
+      synchronized (active) {
+         open = new ArrayList<>(active);
+      }
+      for (StudentCollectionTCPJsonRPCServer handler : open) {
+         handler.closeIfIdle();
       }
+      long deadline = System.currentTimeMillis() + SHUTDOWN_GRACE_MS;
+      try {
+         for (StudentCollectionTCPJsonRPCServer handler : open) {
+            long left = deadline - System.currentTimeMillis();
+            if (left > 0) {
+               handler.join(left);
+            }
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      if (!active.isEmpty()) {
+         System.out.println("Shutdown grace period over, dropping "+active.size()+" calls");
+      }
+      System.out.println("Student server stopped");
    }
     
    public static void main (String args[]) {
@@ -65,6 +138,8 @@ public class StudentCollectionTCPJsonRPCServer extends Thread {
          int portNo = Integer.parseInt(args[0]);
          if (portNo <= 1024) portNo=8888;
          ServerSocket serv = new ServerSocket(portNo);
+         // on Ctrl-C or kill: answer the calls in progress instead of dropping them
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(serv), "shutdown"));
          // accept client requests. For each request create a new thread to handle
          while (true) { 
             System.out.println("Student server waiting for connects on port "
@@ -73,8 +148,11 @@ public class StudentCollectionTCPJsonRPCServer extends Thread {
             System.out.println("Student server connected to client: "+id);
             StudentCollectionTCPJsonRPCServer myServerThread =
                new StudentCollectionTCPJsonRPCServer(sock,id++,studCol);
+            active.add(myServerThread);
             myServerThread.start();
          }
-      } catch(Exception e) {e.printStackTrace();}
+      } catch(Exception e) {
+         if (!shuttingDown) e.printStackTrace();
+      }
    }
 }
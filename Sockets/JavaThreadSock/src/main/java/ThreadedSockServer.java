@@ -18,8 +18,16 @@ import java.util.*;
  * 
  */
 public class ThreadedSockServer extends Thread {
+  // on shutdown, how long a client's current request may take before the server exits anyway
+  static final long SHUTDOWN_GRACE_MS = 10_000;
+  private static final Set<ThreadedSockServer> sessions = Collections.synchronizedSet(new HashSet<>());
+  private static volatile boolean shuttingDown = false;
+
   private Socket conn;
   private int id;
+  // true while a request is answered, the shutdown lets it finish
+  private boolean busy = false;
+  private boolean closed = false;
   private String buf[] = { "The Object class also has support for wait",
       "If the timer has expired, the thread continues", "This call can cause some overhead in programs",
       "Notify signals a waiting thread to wake up", "Wait blocks the thread and releases the lock" };
@@ -39,7 +47,7 @@ public class ThreadedSockServer extends Thread {
       String s = (String) in.readObject();
       int index;
       // while client hasn't ended
-      while (!s.equals("end")) {
+      while (!s.equals("end") && startRequest()) {
         Boolean validInput = true;
 
         // checks if input only contains digits
@@ -64,6 +72,9 @@ public class ThreadedSockServer extends Thread {
             out.writeObject("index out of range");
           }
         }
+        if (!endRequest()) {
+          break; // shutting down, don't wait for more
+        }
         //  wait for next token from the user
         s = (String) in.readObject();
       }
@@ -73,8 +84,76 @@ public class ThreadedSockServer extends Thread {
       out.close();
       conn.close();
     } catch (Exception e) {
+      if (!isClosed()) {
+        e.printStackTrace();
+      }
+    } finally {
+      sessions.remove(this);
+    }
+  }
+
+  private synchronized boolean startRequest() {
+    busy = !closed;
+    return busy;
+  }
+
+  private synchronized boolean endRequest() {
+    busy = false;
+    return !shuttingDown;
+  }
+
+  private synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Called on shutdown: a client waiting between requests is disconnected, a
+   * client whose request is being answered is disconnected after the answer
+   */
+  private synchronized void closeIfIdle() {
+    if (!busy && !closed) {
+      closed = true;
+      try {
+        conn.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Graceful shutdown, run by the JVM's shutdown hook: stops accepting, closes
+   * idle clients and waits up to SHUTDOWN_GRACE_MS for the requests in progress.
+   */
+  static void shutdown(ServerSocket serv) {
+    shuttingDown = true;
+    try {
+      serv.close(); // accept() throws, main ends
+    } catch (IOException e) {
       e.printStackTrace();
     }
+    List<ThreadedSockServer> open;
+    synchronized (sessions) {
+      open = new ArrayList<>(sessions);
+    }
+    for (ThreadedSockServer session : open) {
+      session.closeIfIdle();
+    }
+    long deadline = System.currentTimeMillis() + SHUTDOWN_GRACE_MS;
+    try {
+      for (ThreadedSockServer session : open) {
+        long left = deadline - System.currentTimeMillis();
+        if (left > 0) {
+          session.join(left);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!sessions.isEmpty()) {
+      System.out.println("Shutdown grace period over, dropping " + sessions.size() + " clients");
+    }
+    System.out.println("Threaded server stopped");
   }
 
   public static void main(String args[]) throws IOException {
@@ -89,19 +168,25 @@ public class ThreadedSockServer extends Thread {
       if (portNo <= 1024)
         portNo = 8888;
       ServerSocket serv = new ServerSocket(portNo);
+      // on Ctrl-C or kill: answer the requests in progress instead of dropping them
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(serv), "shutdown"));
       while (true) {
         System.out.println("Threaded server waiting for connects on port " + portNo);
         sock = serv.accept();
         System.out.println("Threaded server connected to client-" + id);
         // create thread
         ThreadedSockServer myServerThread = new ThreadedSockServer(sock, id++);
-        // run thread and don't care about managing it
+        // run thread, remembered only so the shutdown can wait for it
+        sessions.add(myServerThread);
         myServerThread.start();
       }
     } catch (Exception e) {
-      e.printStackTrace();
+      if (!shuttingDown) {
+        e.printStackTrace();
+      }
     } finally {
-      if (sock != null) sock.close();
+      // after a shutdown the last client may still get its answer, the hook closes it
+      if (sock != null && !shuttingDown) sock.close();
     }
   }
 }
@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs SimpleWebServer in each mode against the same burst of connections and
+ * prints connections per second, failed connections, the most threads alive
+ * and the most heap used.
+ *
+ * Server and clients share this JVM so both are measured together; the
+ * clients are virtual threads in every run, so the differences come from the
+ * server. The server's console output is discarded while measuring.
+ *
+ * Usage: gradle compare --args="<connections> <concurrency>"
+ */
+public class ModeComparison {
+
+    private static final byte[] REQUEST = "GET /index.html HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        System.out.printf("%d connections, %d at a time, pool of %d platform threads%n",
+                connections, concurrency, SimpleWebServer.POOL_THREADS);
+        System.out.printf("%-8s %12s %8s %12s %14s%n", "mode", "conn/s", "failed", "peak threads", "peak heap MB");
+        for (SimpleWebServer.Mode mode : SimpleWebServer.Mode.values()) {
+            run(mode, connections / 10, concurrency, false); // warm up
+            run(mode, connections, concurrency, true);
+        }
+    }
+
+    private static void run(SimpleWebServer.Mode mode, int connections, int concurrency, boolean report)
+            throws InterruptedException {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        SimpleWebServer server = new SimpleWebServer(0, mode);
+        Thread acceptor = new Thread(server::serve, "acceptor");
+        acceptor.start();
+
+        System.gc();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        AtomicInteger failed = new AtomicInteger();
+        Semaphore open = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(connections);
+        long start = System.nanoTime();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                open.acquire();
+                clients.execute(() -> {
+                    try {
+                        if (!fetch(server.getPort())) {
+                            failed.incrementAndGet();
+                        }
+                    } finally {
+                        open.release();
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        }
+        long nanos = System.nanoTime() - start;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        int peakThreads = threads.getPeakThreadCount();
+        server.shutdown();
+        acceptor.join();
+        System.setOut(console);
+
+        if (report) {
+            System.out.printf("%-8s %12.0f %8d %12d %14.1f%n", mode.name().toLowerCase(),
+                    connections * 1e9 / nanos, failed.get(), peakThreads, peakHeap / 1048576.0);
+        }
+    }
+
+    /**
+     * @return true if a whole response came back
+     */
+    private static boolean fetch(int port) {
+        try (Socket sock = new Socket("localhost", port)) {
+            sock.getOutputStream().write(REQUEST);
+            InputStream in = sock.getInputStream();
+            byte[] buf = new byte[4096];
+            int total = 0;
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                total += n;
+            }
+            return total > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
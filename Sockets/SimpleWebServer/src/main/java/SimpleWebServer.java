@@ -1,15 +1,68 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Files;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class SimpleWebServer {
 
+    /**
+     * How client connections are run, chosen at startup
+     */
+    enum Mode {
+        /**
+         * a fixed number of platform threads, connections beyond the pool and
+         * its queue are refused instead of starting ever more threads
+         */
+        POOL,
+        /**
+         * one virtual thread per connection: the blocking reads and writes of
+         * ClientHandler park the virtual thread and free its carrier
+         */
+        VIRTUAL
+    }
+
+    /**
+     * On shutdown, how long requests in progress may take before the server exits anyway
+     */
+    static final long SHUTDOWN_GRACE_MS = 10_000;
+
+    /**
+     * Platform threads of the POOL mode
+     */
+    static final int POOL_THREADS = Integer.getInteger("simpleWebServer.poolThreads", 64);
+
+    /**
+     * Accepted connections that may wait for a thread of the pool
+     */
+    static final int POOL_QUEUE = Integer.getInteger("simpleWebServer.poolQueue", 1024);
+
+    /**
+     * Connections the operating system queues until they are accepted
+     */
+    static final int BACKLOG = Integer.getInteger("simpleWebServer.backlog", 1024);
+
+    private ServerSocket server = null;
+    private final Mode mode;
+    private final ExecutorService clientThreads;
+    private final Map<ClientHandler, Boolean> clients = new ConcurrentHashMap<>();
+    private volatile boolean shuttingDown = false;
+
     // 
     public static void main(String args[]) {
         int port = 9099; // default port
-        if (args.length != 1) {
+        Mode mode = Mode.POOL;
+        if (args.length < 1 || args.length > 2) {
 
-            System.out.println("Expected arguments: <port(int)>");
+            System.out.println("Expected arguments: <port(int)> [pool|virtual]");
             System.exit(1);
         }
         System.out.println("running");
@@ -19,15 +72,35 @@ try {
             System.out.println("[Port] must be integer");
             System.exit(2);
         }
+        if (args.length == 2) {
+            try {
+                mode = Mode.valueOf(args[1].toUpperCase());
+            } catch (IllegalArgumentException iae) {
+                System.out.println("[Mode] must be pool or virtual");
+                System.exit(3);
+            }
+        }
 
-        SimpleWebServer server = new SimpleWebServer(port);
-
+        SimpleWebServer server = new SimpleWebServer(port, mode);
+        // on Ctrl-C or kill: finish what is in progress instead of dropping it
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "shutdown"));
+        server.serve();
     }
 
-    public SimpleWebServer(int port) {
-
-        ServerSocket server = null;
-        Socket sock = null;
+    /**
+     * Opens the server socket, serve() then accepts the connections
+     *
+     * @param port port to listen on, 0 picks a free one
+     * @param mode how client connections are run
+     */
+    public SimpleWebServer(int port, Mode mode) {
+        this.mode = mode;
+        if (mode == Mode.VIRTUAL) {
+            clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+        } else {
+            clientThreads = new ThreadPoolExecutor(POOL_THREADS, POOL_THREADS, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(POOL_QUEUE));
+        }
 
         try {
 
@@ -37,33 +110,90 @@ try {
             //***   Write the bytes to the socket's output stream
             //***   close streams and socket appropriately
 
-            server = new ServerSocket(port);
+            server = new ServerSocket(port, BACKLOG);
 
         } catch (IOException ex) {
             ex.printStackTrace();
         }
+    }
 
+    /**
+     * Accepts connections until shutdown() closes the server socket
+     */
+    public void serve() {
+        Socket sock = null;
+        System.out.println("Ready on port " + server.getLocalPort() + ", " + mode + " mode");
         while (server.isBound() && !server.isClosed()) {
-            System.out.println("Ready...");
             try {
                 sock = server.accept();
                 createClientThread(sock);
             } catch (IOException ex) {
-                ex.printStackTrace();
+                if (!shuttingDown) {
+                    ex.printStackTrace();
+                }
             }
         }
     }
 
     /**
-     * Take the newly accepted socket and make it a thread by passing it to
-     * inner class ClientHandler which implements Runnable; subsequently start
-     * the thread up so it can be processed.
+     * @return the port the server listens on
+     */
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Graceful shutdown, run by the JVM's shutdown hook: stops accepting,
+     * closes connections that did not send a request yet and waits up to
+     * SHUTDOWN_GRACE_MS for the requests in progress.
+     */
+    void shutdown() {
+        shuttingDown = true;
+        try {
+            server.close(); // accept() throws, the accept loop ends
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        clientThreads.shutdown();
+        for (ClientHandler client : clients.keySet()) {
+            client.closeIfIdle();
+        }
+        try {
+            clientThreads.awaitTermination(SHUTDOWN_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!clients.isEmpty()) {
+            System.out.println("Shutdown grace period over, dropping " + clients.size() + " requests");
+        }
+        System.out.println("Server stopped");
+    }
+
+    /**
+     * Hand the newly accepted socket to a ClientHandler and run it on a
+     * thread of the chosen mode. When the pool and its queue are full the
+     * connection is closed right away.
      *
      * @param sock
      */
-    private void createClientThread(Socket sock) {
-        Thread thread = new Thread(new ClientHandler(sock));
-        thread.start();
+    private void createClientThread(Socket sock) throws IOException {
+        ClientHandler handler = new ClientHandler(sock);
+        clients.put(handler, Boolean.TRUE);
+        try {
+            clientThreads.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    clients.remove(handler);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            clients.remove(handler);
+            sock.close();
+            if (!shuttingDown) {
+                System.out.println("Too busy, connection refused");
+            }
+        }
     }
 }
 
@@ -79,6 +209,12 @@ class ClientHandler implements Runnable {
     //establish a new socket to read client input from (via BufferedReader)
     InputStream in = null;
     OutputStream out = null;
+    Socket socket;
+    // true once the request line arrived, the request is then answered even during shutdown.
+    // A lock rather than synchronized, which would pin a virtual thread to its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean busy = false;
+    private volatile boolean closed = false;
 
     /**
      * ClientHandler is the constructor that accepts a client socket & chains it
@@ -90,6 +226,7 @@ class ClientHandler implements Runnable {
     public ClientHandler(Socket clientSocket) {
         try {
             //Set local socket to clientSocket received via constructor
+            socket = clientSocket;
             in = clientSocket.getInputStream();
             out = clientSocket.getOutputStream();
 
@@ -115,6 +252,9 @@ class ClientHandler implements Runnable {
 
             String filename = null;
             String line = in.readLine();
+            if (!markBusy()) {
+                return null; // closed by the shutdown while waiting for the request
+            }
             System.out.println("Received: " + line);
             if (line != null && !line.trim().equals("")) {
                 StringTokenizer st = new StringTokenizer(line);
@@ -141,6 +281,9 @@ class ClientHandler implements Runnable {
                 }
             }
         } catch (IOException e) {
+            if (closed) {
+                return null; // closed by the shutdown while waiting for the request
+            }
             e.printStackTrace();
             response = ("<html>ERROR: "
                     + e.getMessage() + "</html").getBytes();
@@ -158,8 +301,9 @@ class ClientHandler implements Runnable {
 
         byte[] result = new byte[(int) f.length()];
 
-        try {
-            new FileInputStream(f).read(result);
+        // closed again, so a long running (virtual threaded) server does not leak file handles
+        try (FileInputStream in = new FileInputStream(f)) {
+            in.readNBytes(result, 0, result.length);
         } catch (Exception ex) {
             ex.printStackTrace();
         }
@@ -167,11 +311,42 @@ class ClientHandler implements Runnable {
         return result;
     }
 
+    private boolean markBusy() {
+        lock.lock();
+        try {
+            busy = !closed;
+            return busy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called on shutdown: a client that has not sent its request yet is
+     * disconnected, a request being answered is left alone
+     */
+    void closeIfIdle() {
+        lock.lock();
+        try {
+            if (!busy && !closed) {
+                closed = true;
+                socket.close();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void run() {
         System.out.println("Starting thread");
         try {
-            out.write(createResponse(in));
+            byte[] response = createResponse(in);
+            if (response != null) {
+                out.write(response);
+            }
         } catch (IOException ex) {
             ex.printStackTrace();
         } finally {
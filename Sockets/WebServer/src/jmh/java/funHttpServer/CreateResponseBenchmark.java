@@ -0,0 +1,57 @@
+package funHttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebServer.createResponse per route, the request read from memory instead of
+ * a socket. GitHub is replaced by an UpstreamStub, the weather route shows
+ * mock data (no API key) and is a cache hit after the first call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CreateResponseBenchmark {
+
+    @Param({"/", "/json", "/multiply?num1=3&num2=4", "/weather?city=Tempe&unit=c",
+            "/github?query=users/stub/repos", "/nothing-here"})
+    public String path;
+
+    private UpstreamStub stub;
+    private WebServer server;
+    private byte[] request;
+
+    @Setup
+    public void setUp() throws IOException {
+        stub = new UpstreamStub(30);
+        // before ServerConfig is loaded
+        System.setProperty("funHttpServer.githubBaseUrl", stub.url());
+        System.setProperty("funHttpServer.accessLog", "off");
+        System.setProperty("funHttpServer.rateLimits", "");
+        server = new WebServer();
+        request = ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown() {
+        stub.stop();
+    }
+
+    @Benchmark
+    public byte[] createResponse() {
+        return server.createResponse(new ByteArrayInputStream(request));
+    }
+}
@@ -0,0 +1,46 @@
+package funHttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebServer.splitQuery for queries with 1 to 64 parameters, half of the
+ * values need decoding ("+" and "%2F")
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SplitQueryBenchmark {
+
+    @Param({"1", "8", "64"})
+    public int params;
+
+    private String query;
+
+    @Setup
+    public void setUp() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < params; i++) {
+            if (i > 0) {
+                builder.append('&');
+            }
+            builder.append("param").append(i).append('=')
+                    .append(i % 2 == 0 ? "value" + i : "hello+world%2F" + i);
+        }
+        query = builder.toString();
+    }
+
+    @Benchmark
+    public Map<String, String> splitQuery() {
+        return WebServer.splitQuery(query);
+    }
+}
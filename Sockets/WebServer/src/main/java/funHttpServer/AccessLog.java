@@ -0,0 +1,246 @@
+package funHttpServer;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log with one line per request, e.g.
+ * <pre>
+ * ts=2024-03-01T10:15:30.123Z client=127.0.0.1 method=GET path=/multiply status=200 bytes=146 latency_ms=0.412
+ * </pre>
+ *
+ * The event loops only put the entry into a ring buffer of preallocated
+ * slots (claimed with a CAS, no lock) and a background thread writes the
+ * entries in batches. A request never waits for the log: when the buffer is
+ * more than three quarters full only every sampleRate-th successful request
+ * is kept, and when it is full the entry is dropped. The number of sampled
+ * out and dropped entries is written to the log as well.
+ */
+class AccessLog implements Runnable {
+
+    /**
+     * One log entry, reused for every lap around the ring
+     */
+    private static final class Slot {
+        long time;
+        String client;
+        String method;
+        String path;
+        int status;
+        long bytes;
+        long latencyNanos;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    /**
+     * per slot: the sequence number + 1 of the entry it holds once it is written completely
+     */
+    private final AtomicLongArray published;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    private final int sampleRate;
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong sampleCounter = new AtomicLong();
+    private final Writer out;
+    private final boolean closeOut;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity   entries in the ring, rounded up to a power of two
+     * @param sampleRate keep one of this many successful requests while the ring is filling up
+     * @param out        where the lines go
+     * @param closeOut   true if out is closed by close()
+     */
+    AccessLog(int capacity, int sampleRate, Writer out, boolean closeOut) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        this.sampleRate = Math.max(1, sampleRate);
+        this.out = out;
+        this.closeOut = closeOut;
+        this.flusher = new Thread(this, "access-log");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * @param target "stdout", "off" or a file name (appended to)
+     * @return the log as configured, null if it is off
+     */
+    static AccessLog create(String target) {
+        if (target == null || target.equalsIgnoreCase("off")) {
+            return null;
+        }
+        int capacity = ServerConfig.ACCESS_LOG_BUFFER;
+        int sampleRate = ServerConfig.ACCESS_LOG_SAMPLE_RATE;
+        if (target.equalsIgnoreCase("stdout")) {
+            return new AccessLog(capacity, sampleRate,
+                    new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)), false);
+        }
+        try {
+            return new AccessLog(capacity, sampleRate, new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(target, true), StandardCharsets.UTF_8)), true);
+        } catch (IOException e) {
+            System.out.println("Cannot open access log " + target + ", logging to stdout: " + e.getMessage());
+            return create("stdout");
+        }
+    }
+
+    void start() {
+        flusher.start();
+    }
+
+    /**
+     * Adds an entry without blocking, may drop it when the writer falls behind
+     *
+     * @param client       address of the client
+     * @param method       request method, "-" if the request could not be parsed
+     * @param path         request path without query and leading "/", null if unknown
+     * @param status       response status
+     * @param bytes        bytes sent including the head
+     * @param latencyNanos from the complete request to the last byte written
+     */
+    void log(String client, String method, String path, int status, long bytes, long latencyNanos) {
+        long seq;
+        while (true) {
+            seq = tail.get();
+            long used = seq - head;
+            if (used >= slots.length) {
+                dropped.increment();
+                return;
+            }
+            if (used >= slots.length - (slots.length >> 2) && status < 500
+                    && sampleCounter.incrementAndGet() % sampleRate != 0) {
+                // falling behind, keep errors and a sample of the rest
+                sampled.increment();
+                return;
+            }
+            if (tail.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+        Slot slot = slots[(int) seq & mask];
+        slot.time = System.currentTimeMillis();
+        slot.client = client;
+        slot.method = method;
+        slot.path = path;
+        slot.status = status;
+        slot.bytes = bytes;
+        slot.latencyNanos = latencyNanos;
+        // the flusher reads the slot only after it sees this
+        published.lazySet((int) seq & mask, seq + 1);
+    }
+
+    @Override
+    public void run() {
+        StringBuilder line = new StringBuilder(160);
+        long reportedSampled = 0;
+        long reportedDropped = 0;
+        while (true) {
+            boolean stopping = !running;
+            int written = 0;
+            long next = head;
+            while (published.get((int) next & mask) == next + 1) {
+                Slot slot = slots[(int) next & mask];
+                format(slot, line);
+                slot.client = null;
+                slot.method = null;
+                slot.path = null;
+                next++;
+                // frees the slot for the producers
+                head = next;
+                write(line);
+                written++;
+            }
+
+            long nowSampled = sampled.sum();
+            long nowDropped = dropped.sum();
+            if (nowSampled != reportedSampled || nowDropped != reportedDropped) {
+                line.setLength(0);
+                line.append("ts=").append(Instant.ofEpochMilli(System.currentTimeMillis()))
+                        .append(" access_log sampled_out=").append(nowSampled - reportedSampled)
+                        .append(" dropped=").append(nowDropped - reportedDropped).append('\n');
+                write(line);
+                reportedSampled = nowSampled;
+                reportedDropped = nowDropped;
+                written++;
+            }
+            if (written > 0) {
+                flush();
+            }
+            if (stopping) {
+                return;
+            }
+            if (written == 0) {
+                LockSupport.parkNanos(ServerConfig.ACCESS_LOG_FLUSH_MS * 1_000_000L);
+            }
+        }
+    }
+
+    private static void format(Slot slot, StringBuilder line) {
+        line.setLength(0);
+        long micros = slot.latencyNanos / 1000;
+        line.append("ts=").append(Instant.ofEpochMilli(slot.time))
+                .append(" client=").append(slot.client)
+                .append(" method=").append(slot.method)
+                .append(" path=").append(slot.path == null ? "-" : "/" + slot.path)
+                .append(" status=").append(slot.status)
+                .append(" bytes=").append(slot.bytes)
+                .append(" latency_ms=").append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            line.append('0');
+        }
+        if (fraction < 10) {
+            line.append('0');
+        }
+        line.append(fraction).append('\n');
+    }
+
+    private void write(StringBuilder line) {
+        try {
+            out.append(line);
+        } catch (IOException e) {
+            // nothing sensible to do, the server keeps running without a log
+        }
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // see write
+        }
+    }
+
+    /**
+     * Writes what is left and stops the flusher
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (closeOut) {
+            EventLoop.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A RouteHandler whose work completes later, e.g. after an upstream call.
+ * The server only calls handleAsync, handle blocks and is there for callers
+ * that want the response right away.
+ */
+interface AsyncRouteHandler extends RouteHandler {
+
+    @Override
+    CompletableFuture<Response> handleAsync(Request request);
+
+    @Override
+    default Response handle(Request request) throws IOException {
+        try {
+            return handleAsync(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = UpstreamClient.unwrap(e);
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A piece of a response body: either bytes that are already in memory or a
+ * region of a file. File regions are never read onto the heap by the server,
+ * the connection sends them with FileChannel.transferTo (sendfile).
+ */
+final class BodyPart {
+
+    private final byte[] bytes;
+    private final Path file;
+    final long position;
+    final long count;
+
+    private BodyPart(byte[] bytes, Path file, long position, long count) {
+        this.bytes = bytes;
+        this.file = file;
+        this.position = position;
+        this.count = count;
+    }
+
+    static BodyPart of(byte[] bytes) {
+        return new BodyPart(bytes, null, 0, bytes.length);
+    }
+
+    /**
+     * @param file     file to send
+     * @param position first byte of the region
+     * @param count    number of bytes in the region
+     * @return the file region
+     */
+    static BodyPart of(Path file, long position, long count) {
+        return new BodyPart(null, file, position, count);
+    }
+
+    boolean isFile() {
+        return file != null;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    Path file() {
+        return file;
+    }
+
+    long length() {
+        return count;
+    }
+
+    /**
+     * Copies the part to a stream, used when a caller wants the whole response
+     * as bytes (createResponse). Files are streamed, not read in one piece.
+     *
+     * @param out where to write
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (bytes != null) {
+            out.write(bytes);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long sent = 0;
+            while (sent < count) {
+                long n = channel.transferTo(position + sent, count - sent, target);
+                if (n <= 0) {
+                    throw new IOException("File " + file + " changed while it was sent");
+                }
+                sent += n;
+            }
+        }
+    }
+}
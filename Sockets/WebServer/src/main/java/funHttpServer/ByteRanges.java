@@ -0,0 +1,204 @@
+package funHttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Range requests for files (RFC 7233): "Range: bytes=0-99" answers with 206
+ * Partial Content and only that part, several ranges are sent as a
+ * multipart/byteranges body. The parts stay file regions, the connection
+ * sends each one from its position with FileChannel.transferTo, so a
+ * download manager can fetch segments in parallel or resume a download.
+ *
+ * Ranges are applied after ConditionalGet: a client whose copy is current
+ * gets 304 even if it also sent Range (RFC 7232 section 6).
+ */
+final class ByteRanges {
+
+    /**
+     * More ranges than this are answered with the whole file, many tiny
+     * ranges would cost more than they save
+     */
+    static final int MAX_RANGES = 16;
+
+    private ByteRanges() {
+    }
+
+    /**
+     * A range of bytes, first and last are included
+     */
+    static final class Range {
+        final long first;
+        final long last;
+
+        Range(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        long length() {
+            return last - first + 1;
+        }
+    }
+
+    /**
+     * @param request  the request with Range and If-Range
+     * @param response 200 response for a whole file
+     * @return a 206 or 416 response if a range was asked for, otherwise the given response
+     */
+    static Response apply(Request request, Response response) {
+        if (response.status != 200 || !response.isFile()) {
+            return response;
+        }
+        BodyPart file = response.body.get(0);
+        String range = request.header("Range");
+        if (range == null || !ifRangeMatches(request.header("If-Range"), response)) {
+            return response.header("Accept-Ranges", "bytes");
+        }
+        List<Range> ranges = parse(range, file.length());
+        if (ranges == null) {
+            // not a byte range we understand, ignore it
+            return response.header("Accept-Ranges", "bytes");
+        }
+        if (ranges.isEmpty()) {
+            return new Response(416, "Range Not Satisfiable", null, List.of())
+                    .header("Content-Range", "bytes */" + file.length());
+        }
+        if (ranges.size() == 1) {
+            Range only = ranges.get(0);
+            return copyValidators(response, new Response(206, "Partial Content", response.contentType,
+                    List.of(BodyPart.of(file.file(), file.position + only.first, only.length()))))
+                    .header("Content-Range", contentRange(only, file.length()));
+        }
+        return copyValidators(response, multipart(response.contentType, file, ranges));
+    }
+
+    /**
+     * @param header value of the Range header, e.g. bytes=0-99,200-,-50
+     * @param size   size of the file
+     * @return the satisfiable ranges, sorted and merged; empty if none is
+     * satisfiable; null if the header is invalid or asks for too many ranges
+     */
+    static List<Range> parse(String header, long size) {
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            String s = spec.trim();
+            int dash = s.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                long first;
+                long last;
+                if (dash == 0) {
+                    // suffix range: the last n bytes
+                    long suffix = Long.parseLong(s.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    first = Math.max(0, size - suffix);
+                    last = size - 1;
+                } else {
+                    first = Long.parseLong(s.substring(0, dash));
+                    if (dash == s.length() - 1) {
+                        last = size - 1;
+                    } else {
+                        last = Long.parseLong(s.substring(dash + 1));
+                        if (last < first) {
+                            return null;
+                        }
+                        last = Math.min(last, size - 1);
+                    }
+                }
+                if (first < 0) {
+                    return null;
+                }
+                if (first < size) {
+                    ranges.add(new Range(first, last));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return merge(ranges);
+    }
+
+    /**
+     * Overlapping and adjacent ranges are sent as one
+     */
+    private static List<Range> merge(List<Range> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        ranges.sort((a, b) -> Long.compare(a.first, b.first));
+        List<Range> merged = new ArrayList<>(ranges.size());
+        Range current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            Range next = ranges.get(i);
+            if (next.first <= current.last + 1) {
+                current = new Range(current.first, Math.max(current.last, next.last));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * @return true if there is no If-Range or it names the current version,
+     * otherwise the client has an old copy and gets the whole file
+     */
+    private static boolean ifRangeMatches(String ifRange, Response response) {
+        if (ifRange == null) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            // only a strong ETag may be used
+            return value.startsWith("\"") && value.equals(response.headerValue("ETag"));
+        }
+        return value.equals(response.headerValue("Last-Modified"));
+    }
+
+    private static Response multipart(String contentType, BodyPart file, List<Range> ranges) {
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        List<BodyPart> parts = new ArrayList<>(ranges.size() * 2 + 1);
+        for (int i = 0; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            String head = (i == 0 ? "" : "\r\n") + "--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: " + contentRange(range, file.length()) + "\r\n\r\n";
+            parts.add(BodyPart.of(head.getBytes(StandardCharsets.ISO_8859_1)));
+            parts.add(BodyPart.of(file.file(), file.position + range.first, range.length()));
+        }
+        parts.add(BodyPart.of(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1)));
+        return new Response(206, "Partial Content", "multipart/byteranges; boundary=" + boundary, parts);
+    }
+
+    private static String contentRange(Range range, long size) {
+        return "bytes " + range.first + "-" + range.last + "/" + size;
+    }
+
+    private static Response copyValidators(Response from, Response to) {
+        for (String name : new String[]{"ETag", "Last-Modified"}) {
+            String value = from.headerValue(name);
+            if (value != null) {
+                to.header(name, value);
+            }
+        }
+        return to.header("Accept-Ranges", "bytes");
+    }
+}
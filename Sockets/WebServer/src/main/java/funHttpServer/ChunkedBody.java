@@ -0,0 +1,243 @@
+package funHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body that is produced while it is sent, for responses whose
+ * size is not known up front. The connection sends it with
+ * "Transfer-Encoding: chunked".
+ *
+ * A producer thread write()s pieces and finally calls end() or fail(). The
+ * pieces wait in a small bounded queue: when the client reads slower than the
+ * producer writes, write() blocks, so a slow client holds at most capacity
+ * pieces in memory. The connection takes pieces on its loop thread with
+ * next(), which never blocks; when nothing is there it asks to be called back
+ * with onAvailable().
+ *
+ * compress() makes the connection gzip or deflate the pieces as it takes
+ * them. Every piece is flushed (SYNC_FLUSH), so a compressed piece still
+ * reaches the client right away instead of waiting in the Deflater.
+ */
+final class ChunkedBody {
+
+    static final byte[] CRLF = {'\r', '\n'};
+    static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private static final byte[] END = new byte[0];
+    private static final long CANCEL_CHECK_MS = 100;
+
+    private final BlockingQueue<byte[]> pieces;
+    private final AtomicBoolean waiting = new AtomicBoolean();
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private volatile Runnable listener;
+    private volatile Throwable failure;
+    private volatile boolean cancelled;
+    private boolean done;
+    // taker side only, null unless compress() was called
+    private DeflaterOutputStream encoder;
+    private ByteArrayOutputStream encoded;
+
+    /**
+     * @param capacity pieces that may wait for the client
+     */
+    ChunkedBody(int capacity) {
+        this.pieces = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Adds a piece, blocks while the queue is full
+     *
+     * @param piece bytes to send, empty pieces are skipped
+     * @return false if the client went away, the producer should stop
+     */
+    boolean write(byte[] piece) throws InterruptedException {
+        return piece.length == 0 || put(piece);
+    }
+
+    /**
+     * The body is complete
+     */
+    void end() throws InterruptedException {
+        try {
+            put(END);
+        } finally {
+            finished.complete(null);
+        }
+    }
+
+    /**
+     * The body cannot be completed, the connection is closed without the last chunk
+     * so the client sees that the response is incomplete
+     *
+     * @param error why
+     */
+    void fail(Throwable error) {
+        failure = error;
+        finished.complete(null);
+        signal();
+    }
+
+    /**
+     * Compresses the pieces as they are taken. Must be called before the
+     * body is handed to the connection, the producer does not notice it.
+     *
+     * @param encoding ContentEncoder.GZIP or ContentEncoder.DEFLATE
+     */
+    void compress(String encoding) {
+        encoded = new ByteArrayOutputStream(512);
+        try {
+            encoder = encoding.equals(ContentEncoder.GZIP)
+                    ? new GZIPOutputStream(encoded, 512, true)
+                    : new DeflaterOutputStream(encoded, true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean put(byte[] piece) throws InterruptedException {
+        while (!cancelled) {
+            if (pieces.offer(piece, CANCEL_CHECK_MS, TimeUnit.MILLISECONDS)) {
+                signal();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void signal() {
+        if (waiting.getAndSet(false)) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Takes the next piece without blocking
+     *
+     * @return the piece, null if there is none yet or the body is done
+     * @throws IOException if the producer failed
+     */
+    byte[] next() throws IOException {
+        if (failure != null) {
+            release();
+            throw new IOException("Streamed body failed: " + UpstreamClient.describe(failure), failure);
+        }
+        if (done) {
+            return null;
+        }
+        return taken(pieces.poll());
+    }
+
+    /**
+     * @param piece polled from the queue, may be null or END
+     * @return what to send for it: the piece, compressed if asked for, the
+     * end of the compressed stream for END, otherwise null
+     */
+    private byte[] taken(byte[] piece) throws IOException {
+        if (piece == END) {
+            done = true;
+            if (encoder == null) {
+                return null;
+            }
+            encoder.close(); // writes the rest and the gzip trailer
+            encoder = null;
+            return encoded.toByteArray();
+        }
+        if (piece == null || encoder == null) {
+            return piece;
+        }
+        encoder.write(piece);
+        encoder.flush();
+        // the first piece also carries the gzip header written when compress() was called
+        byte[] compressed = encoded.toByteArray();
+        encoded.reset();
+        return compressed;
+    }
+
+    private void release() {
+        if (encoder != null) {
+            EventLoop.closeQuietly(encoder);
+            encoder = null;
+        }
+    }
+
+    /**
+     * @return completes when the producer ended or failed the body or the
+     * client went away, i.e. when the producer no longer needs its thread
+     */
+    CompletableFuture<Void> finished() {
+        return finished;
+    }
+
+    /**
+     * @return true once next() returned the end of the body
+     */
+    boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Calls the listener once, from the producer's thread, when next() has
+     * something new. Calls it right away if that is the case already.
+     *
+     * @param listener e.g. continues writing on the connection's loop
+     */
+    void onAvailable(Runnable listener) {
+        this.listener = listener;
+        waiting.set(true);
+        if (!pieces.isEmpty() || failure != null) {
+            signal();
+        }
+    }
+
+    /**
+     * Takes the next piece, waiting for it. For callers that want the whole response (createResponse).
+     *
+     * @return the piece, null at the end of the body
+     * @throws IOException if the producer failed
+     */
+    byte[] take() throws IOException {
+        try {
+            while (true) {
+                byte[] piece = next();
+                if (piece != null || done) {
+                    return piece;
+                }
+                piece = taken(pieces.poll(CANCEL_CHECK_MS, TimeUnit.MILLISECONDS));
+                if (piece != null || done) {
+                    return piece;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the body", e);
+        }
+    }
+
+    /**
+     * @param size bytes in the chunk
+     * @return the chunk size line, e.g. "1a2\r\n"
+     */
+    static byte[] frame(int size) {
+        return (Integer.toHexString(size) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * The client went away, lets the producer stop and drops what is queued
+     */
+    void cancel() {
+        cancelled = true;
+        pieces.clear();
+        release();
+        finished.complete(null);
+    }
+}
@@ -0,0 +1,151 @@
+package funHttpServer;
+
+/**
+ * Circuit breaker for the calls to one upstream host.
+ *
+ * CLOSED: calls go through and the outcome of the last windowSize calls is
+ * kept. Once at least minCalls are known and the share of failed calls or of
+ * slow calls (slower than slowCallMs) reaches its threshold, the breaker
+ * opens.
+ *
+ * OPEN: calls fail right away without touching the upstream, for openMs.
+ *
+ * HALF_OPEN: afterwards up to probes calls are let through. If they all
+ * succeed in time the breaker closes again, the first failed or slow probe
+ * opens it for another openMs.
+ *
+ * The state changes are rare and short, so they are simply synchronized.
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int minCalls;
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final double slowCallRate;
+    private final long openNanos;
+    private final int probes;
+
+    /**
+     * outcome of the last calls: 0 ok, 1 failed, 2 slow
+     */
+    private final byte[] window;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    /**
+     * @param windowSize   calls the rates are computed over
+     * @param minCalls     calls needed before the breaker may open
+     * @param failureRate  share of failed calls that opens the breaker, e.g. 0.5
+     * @param slowCallMs   a call taking longer than this is slow
+     * @param slowCallRate share of slow calls that opens the breaker
+     * @param openMs       how long the breaker stays open
+     * @param probes       calls let through when half open
+     */
+    CircuitBreaker(int windowSize, int minCalls, double failureRate, long slowCallMs, double slowCallRate,
+                   long openMs, int probes) {
+        this.window = new byte[windowSize];
+        this.minCalls = Math.min(minCalls, windowSize);
+        this.failureRate = failureRate;
+        this.slowCallNanos = slowCallMs * 1_000_000L;
+        this.slowCallRate = slowCallRate;
+        this.openNanos = openMs * 1_000_000L;
+        this.probes = probes;
+    }
+
+    /**
+     * @return true if the call may go ahead, it must be followed by record()
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesStarted = 0;
+            probesSucceeded = 0;
+        }
+        if (probesStarted >= probes) {
+            return false;
+        }
+        probesStarted++;
+        return true;
+    }
+
+    /**
+     * @param nanos  duration of the call
+     * @param failed true if the call failed in a way that says the upstream is unwell
+     */
+    synchronized void record(long nanos, boolean failed) {
+        boolean slow = nanos > slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (failed || slow) {
+                open();
+            } else if (++probesSucceeded >= probes) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return; // started before the breaker opened
+        }
+
+        if (calls == window.length) {
+            byte old = window[next];
+            failures -= old == 1 ? 1 : 0;
+            slowCalls -= old == 2 ? 1 : 0;
+        } else {
+            calls++;
+        }
+        byte outcome = (byte) (failed ? 1 : slow ? 2 : 0);
+        window[next] = outcome;
+        next = (next + 1) % window.length;
+        failures += outcome == 1 ? 1 : 0;
+        slowCalls += outcome == 2 ? 1 : 0;
+
+        if (calls >= minCalls
+                && (failures >= failureRate * calls || slowCalls >= slowCallRate * calls)) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        calls = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    /**
+     * @return milliseconds until the breaker lets probes through, 0 if it is not open
+     */
+    synchronized long retryAfterMs() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, (openNanos - (System.nanoTime() - openedAt)) / 1_000_000L);
+    }
+
+    State state() {
+        return state;
+    }
+}
@@ -0,0 +1,156 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * Compressed copies of the files in www/, made once at the best compression
+ * level and then sent to every client that accepts gzip or deflate.
+ *
+ * Compressed bytes are keyed by the SHA-256 of the file content, so a file
+ * that is saved again without changes (or two files with the same content)
+ * is not compressed again. The hash of a path is remembered together with
+ * size and modification time and dropped when the DirectoryWatcher reports
+ * a change. The cache is bounded by the total compressed bytes, the oldest
+ * entries are removed first.
+ */
+class CompressedAssetCache {
+
+    /**
+     * What we know about a file the last time it was hashed
+     */
+    private static final class FileState {
+        final long size;
+        final long modified;
+        final String hash;
+
+        FileState(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxFileSize;
+    private final Map<Path, FileState> files = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> compressed = new ConcurrentHashMap<>();
+    private final Queue<String> order = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * @param maxBytes    most compressed bytes kept in memory
+     * @param maxFileSize larger files are sent uncompressed
+     * @param watcher     watches the directory of the files, null to check size and time only
+     */
+    CompressedAssetCache(long maxBytes, long maxFileSize, DirectoryWatcher watcher) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+        if (watcher != null) {
+            watcher.addListener(changed -> {
+                if (changed == null) {
+                    files.clear();
+                } else {
+                    files.remove(changed);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param part a body part
+     * @return true if it is a whole file small enough to be compressed by get()
+     */
+    boolean accepts(BodyPart part) {
+        return part.isFile() && part.position == 0 && part.count <= maxFileSize;
+    }
+
+    /**
+     * @param part     a whole file as returned by StaticFileHandler
+     * @param encoding gzip or deflate
+     * @return the compressed file or null if the file is not cached (too large, a range, unreadable)
+     */
+    byte[] get(BodyPart part, String encoding) {
+        if (!accepts(part)) {
+            return null;
+        }
+        Path file = part.file().toAbsolutePath().normalize();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attributes.size() != part.count) {
+                // only part of the file or it changed since the handler looked at it
+                return null;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            FileState state = files.get(file);
+            if (state != null && state.size == attributes.size() && state.modified == modified) {
+                byte[] cached = compressed.get(state.hash + ':' + encoding);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            byte[] content = Files.readAllBytes(file);
+            if (content.length != part.count) {
+                return null;
+            }
+            String hash = sha256(content);
+            files.put(file, new FileState(content.length, modified, hash));
+            String key = hash + ':' + encoding;
+            byte[] result = compressed.computeIfAbsent(key, k -> {
+                byte[] zipped = ContentEncoder.compress(content, encoding, Deflater.BEST_COMPRESSION);
+                order.add(k);
+                bytes.addAndGet(zipped.length);
+                return zipped;
+            });
+            evict();
+            return result;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return compressed bytes currently held
+     */
+    long size() {
+        return bytes.get();
+    }
+
+    private void evict() {
+        while (bytes.get() > maxBytes) {
+            String oldest = order.poll();
+            if (oldest == null) {
+                return;
+            }
+            byte[] removed = compressed.remove(oldest);
+            if (removed != null) {
+                bytes.addAndGet(-removed.length);
+            }
+        }
+    }
+
+    static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
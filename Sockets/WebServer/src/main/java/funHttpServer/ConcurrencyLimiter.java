@@ -0,0 +1,177 @@
+package funHttpServer;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Admission control: at most maxConcurrent requests are handled at the same
+ * time, up to maxQueued more wait for a free slot, and everything beyond that
+ * is answered right away with 503 Service Unavailable and Retry-After.
+ * Requests that waited maxWaitMs are answered with 503 as well, when their
+ * deadline passes and not only when a slot is released, so latency stays flat
+ * under overload even while every slot is held by a slow request.
+ *
+ * Nothing blocks: a waiting request is a queued task, not a waiting thread.
+ * The slot is given back when the response future completes, or for a
+ * streamed body when ChunkedBody.finished() does, and the next waiting
+ * request is then started on the executor.
+ */
+class ConcurrencyLimiter {
+
+    private static final class Waiter {
+        final Supplier<CompletableFuture<Response>> work;
+        final CompletableFuture<Response> result = new CompletableFuture<>();
+        final long queuedAt = System.nanoTime();
+
+        Waiter(Supplier<CompletableFuture<Response>> work) {
+            this.work = work;
+        }
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxWaitMs;
+    private final long maxWaitNanos;
+    private final Executor executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param maxConcurrent requests handled at the same time
+     * @param maxQueued     requests that may wait for a slot
+     * @param maxWaitMs     longest time a request may wait
+     * @param executor      starts requests that had to wait
+     */
+    ConcurrencyLimiter(int maxConcurrent, int maxQueued, long maxWaitMs, Executor executor) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxWaitMs = maxWaitMs;
+        this.maxWaitNanos = maxWaitMs * 1_000_000L;
+        this.executor = executor;
+    }
+
+    /**
+     * @param work creates the response, called once a slot is free
+     * @return completes with the response of work, or with a 503 if there is no room
+     */
+    CompletableFuture<Response> submit(Supplier<CompletableFuture<Response>> work) {
+        if (tryAcquire()) {
+            return run(work);
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.increment();
+            return CompletableFuture.completedFuture(overloaded());
+        }
+        Waiter waiter = new Waiter(work);
+        waiters.add(waiter);
+        CompletableFuture.delayedExecutor(maxWaitMs, TimeUnit.MILLISECONDS).execute(() -> expire(waiter));
+        // a slot may have been released between tryAcquire and add
+        drain();
+        return waiter.result;
+    }
+
+    private CompletableFuture<Response> run(Supplier<CompletableFuture<Response>> work) {
+        CompletableFuture<Response> response;
+        try {
+            response = work.get();
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        return response.whenComplete((r, e) -> {
+            if (r != null && r.stream != null) {
+                // the producer of the body is still busy after the head went out
+                r.stream.finished().whenComplete((done, error) -> release());
+            } else {
+                release();
+            }
+        });
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * Answers a request that is still waiting at its deadline with 503.
+     * Whoever removes the waiter from the queue, this or drain, owns it.
+     */
+    private void expire(Waiter waiter) {
+        if (waiters.remove(waiter)) {
+            queued.decrementAndGet();
+            rejected.increment();
+            waiter.result.complete(overloaded());
+        }
+    }
+
+    /**
+     * Starts waiting requests while there are free slots
+     */
+    private void drain() {
+        while (!waiters.isEmpty() && tryAcquire()) {
+            Waiter waiter = waiters.poll();
+            if (waiter == null) {
+                // someone else took it, give the slot back and look again
+                inFlight.decrementAndGet();
+                continue;
+            }
+            queued.decrementAndGet();
+            if (System.nanoTime() - waiter.queuedAt > maxWaitNanos) {
+                inFlight.decrementAndGet();
+                rejected.increment();
+                waiter.result.complete(overloaded());
+                continue;
+            }
+            try {
+                executor.execute(() -> run(waiter.work).whenComplete((r, e) -> {
+                    if (e != null) {
+                        waiter.result.completeExceptionally(e);
+                    } else {
+                        waiter.result.complete(r);
+                    }
+                }));
+            } catch (RuntimeException e) {
+                // executor shut down
+                inFlight.decrementAndGet();
+                waiter.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= maxConcurrent) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static Response overloaded() {
+        return Response.serviceUnavailable(ServerConfig.RETRY_AFTER_SECONDS);
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    int queued() {
+        return queued.get();
+    }
+
+    long rejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,164 @@
+package funHttpServer;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Answers conditional GETs (If-None-Match, If-Modified-Since) with 304 Not
+ * Modified when the client already has the current version.
+ *
+ * Handlers only add the validators to their 200 responses: www/ files get an
+ * ETag from size and modification time, so neither the 200 nor the 304 needs
+ * to read the file, and the cached root page gets a hash of its content,
+ * computed once when it is rendered.
+ *
+ * The check runs before ContentEncoder, so a revalidated response is never
+ * compressed. It compares with the ETag of the variant the encoder would
+ * send (ContentEncoder.coding), e.g. the "-gzip" one.
+ */
+final class ConditionalGet {
+
+    /**
+     * IMF-fixdate as sent, RFC_1123_DATE_TIME would drop the leading zero of the day
+     */
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * @param size     file size in bytes
+     * @param modified modification time in milliseconds
+     * @return strong ETag for a file that changes whenever size or time change
+     */
+    static String etag(long size, long modified) {
+        return "\"" + Long.toHexString(modified) + "-" + Long.toHexString(size) + "\"";
+    }
+
+    /**
+     * @param content body of the response
+     * @return strong ETag from the content hash
+     */
+    static String etag(byte[] content) {
+        return "\"" + CompressedAssetCache.sha256(content).substring(0, 32) + "\"";
+    }
+
+    /**
+     * @param etag   an ETag
+     * @param suffix name of the variant, e.g. the content coding
+     * @return ETag of the variant, a compressed body is a different representation
+     */
+    static String variantEtag(String etag, String suffix) {
+        boolean weak = etag.startsWith("W/");
+        String opaque = weak ? etag.substring(2) : etag;
+        if (opaque.length() < 2 || !opaque.endsWith("\"")) {
+            return etag;
+        }
+        return (weak ? "W/" : "") + opaque.substring(0, opaque.length() - 1) + "-" + suffix + "\"";
+    }
+
+    /**
+     * @param millis time in milliseconds
+     * @return the time as HTTP date, e.g. Tue, 15 Nov 1994 08:12:31 GMT
+     */
+    static String httpDate(long millis) {
+        return HTTP_DATE.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    /**
+     * @param request  request with the conditional header fields
+     * @param response response of the handler, not compressed yet
+     * @param coding   content coding it will be sent with, see ContentEncoder.coding, null if it does not vary
+     * @return a 304 if the client's copy is current, otherwise the given response
+     */
+    static Response apply(Request request, Response response, String coding) {
+        if (response.status != 200) {
+            return response;
+        }
+        String etag = response.headerValue("ETag");
+        if (etag != null && coding != null && !coding.equals(ContentEncoder.IDENTITY)) {
+            etag = variantEtag(etag, coding);
+        }
+        String lastModified = response.headerValue("Last-Modified");
+        if (etag == null && lastModified == null) {
+            return response;
+        }
+
+        String ifNoneMatch = request.header("If-None-Match");
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            // If-None-Match wins, If-Modified-Since is ignored then (RFC 7232 section 6)
+            notModified = etag != null && matches(ifNoneMatch, etag);
+        } else {
+            String ifModifiedSince = request.header("If-Modified-Since");
+            notModified = ifModifiedSince != null && lastModified != null
+                    && !isAfter(lastModified, ifModifiedSince);
+        }
+        if (!notModified) {
+            return response;
+        }
+        String currentEtag = etag;
+        if (response.isPrebuilt()) {
+            // cached page, keep the 304 ready as well
+            return response.variant("304-" + coding, page -> notModified(page, currentEtag, coding).prebuild());
+        }
+        return notModified(response, currentEtag, coding);
+    }
+
+    private static Response notModified(Response response, String etag, String coding) {
+        Response answer = Response.notModified();
+        if (etag != null) {
+            answer.header("ETag", etag);
+        }
+        String lastModified = response.headerValue("Last-Modified");
+        if (lastModified != null) {
+            answer.header("Last-Modified", lastModified);
+        }
+        if (coding != null || response.hasHeader("Vary")) {
+            answer.header("Vary", coding != null ? "Accept-Encoding" : response.headerValue("Vary"));
+        }
+        return answer;
+    }
+
+    /**
+     * Weak comparison as required for If-None-Match
+     *
+     * @param ifNoneMatch list of ETags or *
+     * @param etag        current ETag
+     * @return true if one of the listed ETags matches
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        String current = opaque(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || opaque(value).equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaque(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * @param lastModified    HTTP date of the resource
+     * @param ifModifiedSince HTTP date sent by the client
+     * @return true if the resource changed after the client's date, also if a date cannot be parsed
+     */
+    private static boolean isAfter(String lastModified, String ifModifiedSince) {
+        try {
+            ZonedDateTime modified = ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME);
+            ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return modified.isAfter(since);
+        } catch (DateTimeParseException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * State of one client connection. A connection is owned by exactly one
+ * EventLoop and all methods except the worker callback run on that loop's
+ * thread, so no locking is needed.
+ *
+ * The connection collects bytes in its read buffer and parses them as they
+ * arrive (RequestParser). Once it has a complete request (the header up to
+ * the empty line plus Content-Length bytes of body) it hands the parsed
+ * Request to a worker thread which calls WebServer.createResponseAsync. The
+ * response is written back without blocking once it is complete.
+ *
+ * Connections are persistent (HTTP/1.1 keep-alive). Pipelined requests are
+ * answered strictly one after the other: the next request is only dispatched
+ * once the previous response has been written, so responses always leave in
+ * request order.
+ *
+ * Whatever the connection waits for has a deadline, kept in the loop's
+ * TimerWheel: the next request on an idle connection (IDLE_TIMEOUT_MS), the
+ * rest of the header once its first byte arrived (HEADER_TIMEOUT_MS), the
+ * body (BODY_TIMEOUT_MS) and a client that does not read its response
+ * (WRITE_TIMEOUT_MS). The header and body deadlines are not moved by the
+ * bytes that trickle in, so a client sending one byte now and then is cut
+ * off with 408 instead of holding the connection forever. The read buffer
+ * never grows beyond MAX_REQUEST_SIZE and shrinks back after a large request.
+ */
+class Connection {
+
+    /**
+     * What the connection is waiting for, each with its own timeout
+     */
+    private enum Wait {
+        IDLE(ServerConfig.IDLE_TIMEOUT_MS),
+        HEADER(ServerConfig.HEADER_TIMEOUT_MS),
+        BODY(ServerConfig.BODY_TIMEOUT_MS),
+        WRITE(ServerConfig.WRITE_TIMEOUT_MS),
+        /**
+         * the handler or a streamed body, not the client
+         */
+        NOTHING(0);
+
+        final long timeoutMs;
+
+        Wait(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    private final EventLoop loop;
+    private final SelectionKey key;
+    private final SocketChannel channel;
+
+    private ByteBuffer readBuffer = ByteBuffer.allocate(ServerConfig.READ_BUFFER_SIZE);
+    private final RequestParser parser = new RequestParser(ServerConfig.MAX_HEADER_SIZE, ServerConfig.MAX_HEADER_COUNT);
+    private ResponseWriter writer;
+    private boolean processing = false;
+    private boolean keepAlive = false;
+    private boolean http11 = true;
+    private boolean inputClosed = false;
+    private boolean closed = false;
+    private int requestCount = 0;
+
+    private Wait waiting = Wait.NOTHING;
+    private long deadline;
+    /**
+     * earliest time this connection is in the timer wheel for, Long.MAX_VALUE if it is not
+     */
+    private long scheduledAt = Long.MAX_VALUE;
+
+    // what the access log needs about the request being answered
+    private final String client;
+    private Request current;
+    private long requestStart;
+    private int status;
+
+    Connection(EventLoop loop, SelectionKey key, SocketChannel channel) {
+        this.loop = loop;
+        this.key = key;
+        this.channel = channel;
+        this.client = clientAddress();
+        await(Wait.IDLE);
+    }
+
+    /**
+     * Reads what is available and dispatches the next request once it is complete
+     */
+    void onReadable() throws IOException {
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= ServerConfig.MAX_REQUEST_SIZE) {
+                sendError("413 Payload Too Large");
+                return;
+            }
+            // request does not fit, grow the buffer
+            ByteBuffer bigger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, ServerConfig.MAX_REQUEST_SIZE));
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        }
+
+        int numRead = channel.read(readBuffer);
+        if (numRead > 0 && waiting == Wait.IDLE) {
+            // first byte of a request, from now on the header has to arrive in time
+            await(Wait.HEADER);
+        }
+        if (numRead == -1) {
+            inputClosed = true;
+            if (processing) {
+                return;
+            }
+            if (parser.parse(readBuffer) == RequestParser.State.INCOMPLETE && readBuffer.position() > 0) {
+                // client closed its side mid header, answer what we have like the old readLine loop did
+                if (parser.endOfInput(readBuffer) == RequestParser.State.DONE) {
+                    requestCount++;
+                    dispatch(parser.request(client), readBuffer.position(), false);
+                } else {
+                    close();
+                }
+            } else if (!tryDispatch()) {
+                close();
+            }
+            return;
+        }
+        tryDispatch();
+    }
+
+    /**
+     * Writes as much of the pending response as the socket accepts
+     */
+    void onWritable() throws IOException {
+        long before = writer.written();
+        boolean done = writer.write(channel);
+        if (!done && writer.written() > before) {
+            // the client reads, give it time for the rest
+            await(Wait.WRITE);
+        }
+        written(done);
+    }
+
+    /**
+     * @param done result of the last ResponseWriter.write
+     */
+    private void written(boolean done) {
+        if (done) {
+            responseDone();
+        } else if (writer.waitingForBody()) {
+            // streamed body: wait for the producer, not for the socket
+            key.interestOps(0);
+            await(Wait.NOTHING);
+            writer.onBodyAvailable(() -> loop.execute(this::resumeStream));
+        } else {
+            // socket buffer full, let the selector tell us when we can continue
+            key.interestOps(SelectionKey.OP_WRITE);
+            if (waiting != Wait.WRITE) {
+                await(Wait.WRITE);
+            }
+        }
+    }
+
+    /**
+     * Called on the loop thread when the streamed body has more to write
+     */
+    private void resumeStream() {
+        if (closed || writer == null) {
+            return;
+        }
+        try {
+            written(writer.write(channel));
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Dispatches the next buffered request if it is complete
+     *
+     * @return true if a request was dispatched
+     */
+    private boolean tryDispatch() {
+        if (processing || closed) {
+            return false;
+        }
+        RequestParser.State state = parser.parse(readBuffer);
+        if (state == RequestParser.State.INCOMPLETE) {
+            key.interestOps(SelectionKey.OP_READ);
+            return false;
+        }
+        if (waiting == Wait.IDLE || waiting == Wait.HEADER) {
+            // header complete, the body gets its own deadline
+            await(Wait.BODY);
+        }
+        if (state == RequestParser.State.ERROR) {
+            sendError(parser.errorStatus());
+            return true;
+        }
+
+        int headerEnd = parser.headerLength();
+        long contentLength = parser.contentLength();
+        if (contentLength < 0) {
+            // chunked request bodies are not supported, a broken Content-Length already failed parsing
+            sendError("501 Not Implemented");
+            return true;
+        }
+        if (headerEnd + contentLength > ServerConfig.MAX_REQUEST_SIZE) {
+            sendError("413 Payload Too Large");
+            return true;
+        }
+        int total = headerEnd + (int) contentLength;
+        if (readBuffer.position() < total) {
+            // body not complete yet
+            key.interestOps(SelectionKey.OP_READ);
+            return false;
+        }
+
+        requestCount++;
+        boolean reuse = parser.keepAlive() && !inputClosed && !loop.isDraining()
+                && requestCount < ServerConfig.MAX_REQUESTS_PER_CONNECTION;
+        dispatch(parser.request(client), total, reuse);
+        return true;
+    }
+
+    /**
+     * Hands the parsed request to a worker thread. Reading is paused until the
+     * response has been written, pipelined requests wait in the read buffer.
+     *
+     * @param request the parsed request
+     * @param length  number of bytes in the read buffer belonging to the request (the body is skipped)
+     * @param reuse   true if the connection stays open after the response
+     */
+    private void dispatch(Request request, int length, boolean reuse) {
+        processing = true;
+        keepAlive = reuse;
+        current = request;
+        http11 = parser.http11();
+        requestStart = System.nanoTime();
+        key.interestOps(0);
+
+        // drop the request from the buffer, a pipelined request moves to the front
+        readBuffer.flip();
+        readBuffer.position(length);
+        if (readBuffer.capacity() > ServerConfig.READ_BUFFER_SIZE && readBuffer.remaining() <= ServerConfig.READ_BUFFER_SIZE) {
+            // a large request is done, do not keep its buffer for the rest of the connection
+            ByteBuffer smaller = ByteBuffer.allocate(ServerConfig.READ_BUFFER_SIZE);
+            smaller.put(readBuffer);
+            readBuffer = smaller;
+        } else {
+            readBuffer.compact();
+        }
+        parser.reset();
+        await(Wait.NOTHING);
+
+        WebServer handler = loop.getServer().getHandler();
+        // runs on a worker, or waits for a free slot, or is answered with 503 right away.
+        // The worker is free again as soon as the handler waits for an upstream.
+        handler.admit(request, loop.getServer().getWorkers())
+                .exceptionally(e -> Response.serverError("Error: " + UpstreamClient.describe(e)))
+                .thenAccept(response -> loop.execute(() -> send(response)));
+    }
+
+    /**
+     * Answers with an error status and closes the connection. Used when the
+     * request cannot be framed, so nothing after it can be trusted.
+     *
+     * @param status code and reason phrase
+     */
+    private void sendError(String status) {
+        processing = true;
+        keepAlive = false;
+        current = null;
+        requestStart = System.nanoTime();
+        int space = status.indexOf(' ');
+        send(new Response(Integer.parseInt(status.substring(0, space)), status.substring(space + 1),
+                Response.TEXT, status));
+    }
+
+    /**
+     * Called on the loop thread once the worker produced the response. If the
+     * client went away in the meantime a streamed body is cancelled, so its
+     * producer stops instead of waiting for a reader that never comes.
+     *
+     * @param response the response to send
+     */
+    void send(Response response) {
+        if (closed) {
+            if (response.stream != null) {
+                response.stream.cancel();
+            }
+            return;
+        }
+        if (response.stream != null && !http11) {
+            // HTTP/1.0 has no chunked encoding, the end of the connection is the end of the body
+            keepAlive = false;
+        }
+        writer = new ResponseWriter(response, keepAlive, http11);
+        status = response.status;
+        try {
+            written(writer.write(channel));
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * The response is on the wire: close or move on to the next request
+     */
+    private void responseDone() {
+        recordRequest();
+        writer = null;
+        processing = false;
+        if (!keepAlive || loop.isDraining()) {
+            close();
+            return;
+        }
+        // a pipelined request may have started already
+        await(readBuffer.position() > 0 ? Wait.HEADER : Wait.IDLE);
+        if (!tryDispatch() && inputClosed) {
+            close();
+        }
+    }
+
+    /**
+     * Counts the bytes sent and writes the access log entry of the finished response
+     */
+    private void recordRequest() {
+        loop.getServer().getHandler().recordBytesOut(writer.written());
+        AccessLog accessLog = loop.getServer().getAccessLog();
+        if (accessLog == null) {
+            return;
+        }
+        accessLog.log(client, current == null ? "-" : current.method, current == null ? null : current.path,
+                status, writer.written(), System.nanoTime() - requestStart);
+        current = null;
+    }
+
+    private String clientAddress() {
+        try {
+            InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+            return address == null ? "-" : address.getAddress().getHostAddress();
+        } catch (IOException e) {
+            return "-";
+        }
+    }
+
+    /**
+     * Starts waiting for something, with the deadline that belongs to it
+     */
+    private void await(Wait what) {
+        waiting = what;
+        if (what == Wait.NOTHING) {
+            deadline = 0;
+            return;
+        }
+        deadline = System.currentTimeMillis() + what.timeoutMs;
+        if (deadline < scheduledAt) {
+            // a later entry in the wheel is checked and ignored when it fires
+            scheduledAt = deadline;
+            loop.getTimers().schedule(this, deadline);
+        }
+    }
+
+    /**
+     * Called by the loop's timer wheel when a deadline of this connection may have passed
+     *
+     * @param now current time in milliseconds
+     */
+    void onTimer(long now) {
+        scheduledAt = Long.MAX_VALUE;
+        if (closed || deadline == 0) {
+            return;
+        }
+        if (deadline > now) {
+            // the deadline moved since this entry was scheduled
+            scheduledAt = deadline;
+            loop.getTimers().schedule(this, deadline);
+            return;
+        }
+        switch (waiting) {
+            case HEADER:
+            case BODY:
+                // tell the client why, then close
+                sendError("408 Request Timeout");
+                break;
+            default:
+                close();
+        }
+    }
+
+    /**
+     * The server shuts down: an idle connection is closed now, a connection
+     * with a request in progress is closed once its response has been sent
+     */
+    void drain() {
+        if (!processing && waiting == Wait.IDLE) {
+            close();
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        loop.connectionClosed();
+        if (writer != null) {
+            writer.close();
+        }
+        key.cancel();
+        EventLoop.closeQuietly(channel);
+    }
+}
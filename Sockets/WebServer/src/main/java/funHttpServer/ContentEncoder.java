@@ -0,0 +1,214 @@
+package funHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses responses for clients that send Accept-Encoding.
+ *
+ * Only text like bodies (html, plain text, JSON, css, javascript, svg) of at
+ * least minSize bytes are compressed, small or already compressed content
+ * (images) would not get smaller. Compressed variants of cached pages are
+ * kept with the page (Response.variant) and files from www/ come from the
+ * CompressedAssetCache, so repeated requests spend no CPU on compression.
+ * Streamed bodies have no length yet, they are compressed piece by piece
+ * while they are sent (ChunkedBody.compress).
+ */
+class ContentEncoder {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+    static final String IDENTITY = "identity";
+
+    private final int minSize;
+    private final CompressedAssetCache assets;
+
+    /**
+     * @param minSize smallest body that is compressed
+     * @param assets  compressed files, null to send files uncompressed
+     */
+    ContentEncoder(int minSize, CompressedAssetCache assets) {
+        this.minSize = minSize;
+        this.assets = assets;
+    }
+
+    /**
+     * Tells which representation encode() will send, so ConditionalGet can
+     * compare the client's ETag with it before anything is compressed
+     *
+     * @param request  the request with its Accept-Encoding
+     * @param response the response of the handler
+     * @return gzip, deflate or identity, null if the response does not depend on Accept-Encoding
+     */
+    String coding(Request request, Response response) {
+        if (response.status != 200 || !isCompressible(response.contentType)
+                || response.hasHeader("Content-Encoding")
+                || (response.stream == null && response.contentLength() < minSize)) {
+            return null;
+        }
+        if (response.isFile() && (assets == null || !assets.accepts(response.body.get(0)))) {
+            // sent as it is, but the client still has to know the answer depends on Accept-Encoding
+            return IDENTITY;
+        }
+        return negotiate(request.header("Accept-Encoding"));
+    }
+
+    /**
+     * @param request  the request with its Accept-Encoding
+     * @param response the response of the handler
+     * @return the response compressed for the client, or the given response
+     */
+    Response encode(Request request, Response response) {
+        String encoding = coding(request, response);
+        if (encoding == null) {
+            return response;
+        }
+        if (encoding.equals(IDENTITY)) {
+            if (response.isPrebuilt()) {
+                return response.variant(IDENTITY, page -> page.withBody(page.toBodyBytes())
+                        .header("Vary", "Accept-Encoding")
+                        .prebuild());
+            }
+            return response.header("Vary", "Accept-Encoding");
+        }
+
+        if (response.stream != null) {
+            response.stream.compress(encoding);
+            return response.header("Content-Encoding", encoding)
+                    .header("Vary", "Accept-Encoding");
+        }
+        if (response.isFile()) {
+            byte[] compressed = assets.get(response.body.get(0), encoding);
+            if (compressed == null) {
+                // the file changed or cannot be read, send it as it is
+                return response.header("Vary", "Accept-Encoding");
+            }
+            return encoded(response, compressed, encoding);
+        }
+        if (response.isPrebuilt()) {
+            // cached page, compress it once
+            return response.variant(encoding,
+                    page -> encoded(page, compress(page.toBodyBytes(), encoding, Deflater.BEST_COMPRESSION), encoding)
+                            .prebuild());
+        }
+        return encoded(response, compress(response.toBodyBytes(), encoding, Deflater.DEFAULT_COMPRESSION), encoding);
+    }
+
+    private static Response encoded(Response response, byte[] body, String encoding) {
+        Response encoded = response.withBody(body)
+                .header("Content-Encoding", encoding)
+                .header("Vary", "Accept-Encoding");
+        String etag = response.headerValue("ETag");
+        if (etag != null) {
+            encoded.setHeader("ETag", ConditionalGet.variantEtag(etag, encoding));
+        }
+        return encoded;
+    }
+
+    /**
+     * Picks the coding with the highest q value, gzip wins a tie
+     *
+     * @param acceptEncoding value of the Accept-Encoding header, may be null
+     * @return gzip, deflate or identity
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+        // null means the client did not mention the coding
+        Double gzip = null;
+        Double deflate = null;
+        double any = 0;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case GZIP:
+                case "x-gzip":
+                    gzip = q;
+                    break;
+                case DEFLATE:
+                    deflate = q;
+                    break;
+                case "*":
+                    any = q;
+                    break;
+                default:
+                    break;
+            }
+        }
+        double gzipQ = gzip != null ? gzip : any;
+        double deflateQ = deflate != null ? deflate : any;
+        if (gzipQ > 0 && gzipQ >= deflateQ) {
+            return GZIP;
+        }
+        return deflateQ > 0 ? DEFLATE : IDENTITY;
+    }
+
+    /**
+     * @param contentType value of the Content-Type header
+     * @return true for text like content that compresses well
+     */
+    static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.startsWith("application/json")
+                || type.startsWith("application/javascript") || type.startsWith("image/svg+xml");
+    }
+
+    /**
+     * @param data     bytes to compress
+     * @param encoding gzip or deflate (zlib format, as HTTP means it)
+     * @param level    Deflater level
+     * @return the compressed bytes
+     */
+    static byte[] compress(byte[] data, String encoding, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        try {
+            if (encoding.equals(GZIP)) {
+                try (OutputStream zip = new LevelGZIPOutputStream(out, level)) {
+                    zip.write(data);
+                }
+            } else {
+                Deflater deflater = new Deflater(level);
+                try (OutputStream zip = new DeflaterOutputStream(out, deflater)) {
+                    zip.write(data);
+                } finally {
+                    deflater.end();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * GZIPOutputStream with a compression level
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+}
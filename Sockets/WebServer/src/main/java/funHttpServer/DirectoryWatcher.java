@@ -0,0 +1,84 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Watches a directory (www/) with a WatchService and tells the listeners
+ * which file was created, changed or deleted. Caches of files in that
+ * directory use it to drop entries as soon as the file changes.
+ *
+ * Listeners run on the watcher thread and get the changed file, or null if
+ * events were lost and everything should be treated as changed.
+ */
+class DirectoryWatcher implements Runnable {
+
+    private final Path directory;
+    private final WatchService service;
+    private final List<Consumer<Path>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param directory to watch, not recursive
+     */
+    DirectoryWatcher(Path directory) throws IOException {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.service = FileSystems.getDefault().newWatchService();
+        this.directory.register(service,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this, "watch-" + directory.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param listener called with the absolute path of a changed file, or null for "everything"
+     */
+    void addListener(Consumer<Path> listener) {
+        listeners.add(listener);
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Path changed = event.kind() == StandardWatchEventKinds.OVERFLOW
+                            ? null
+                            : directory.resolve((Path) event.context());
+                    for (Consumer<Path> listener : listeners) {
+                        listener.accept(changed);
+                    }
+                }
+                if (!key.reset()) {
+                    // directory is gone, nothing left to watch
+                    for (Consumer<Path> listener : listeners) {
+                        listener.accept(null);
+                    }
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    void close() {
+        EventLoop.closeQuietly(service);
+    }
+}
@@ -0,0 +1,208 @@
+package funHttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread. The loop owns every connection registered with it:
+ * all reads, writes and state changes of a connection happen on this thread.
+ * Other threads (the acceptor, the workers) talk to the loop by queueing
+ * tasks with execute(), which wakes up the selector.
+ *
+ * The deadlines of the connections live in one TimerWheel per loop, which the
+ * loop advances every time the selector returns (at least once a tick).
+ */
+class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final EventLoopServer server;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean draining = false;
+    /**
+     * open connections, only changed on the loop thread
+     */
+    private volatile int connections;
+    private final TimerWheel<Connection> timers = new TimerWheel<>(ServerConfig.TIMER_TICK_MS, 512,
+            System.currentTimeMillis());
+
+    EventLoop(EventLoopServer server, int id) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, "event-loop-" + id);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Runs the task on the loop thread, wakes the selector if needed
+     *
+     * @param task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Hands a freshly accepted channel over to this loop
+     *
+     * @param channel non-blocking client channel
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                connections++;
+                key.attach(new Connection(this, key, channel));
+            } catch (IOException e) {
+                e.printStackTrace();
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    EventLoopServer getServer() {
+        return server;
+    }
+
+    /**
+     * @return deadlines of the connections of this loop, only to be used on the loop thread
+     */
+    TimerWheel<Connection> getTimers() {
+        return timers;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                // wake up at least once a tick to enforce the deadlines
+                selector.select(timers.tickMs());
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection conn = (Connection) key.attachment();
+                    if (conn == null || !key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            conn.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.onWritable();
+                        }
+                    } catch (IOException e) {
+                        // client went away, nothing we can do about it
+                        conn.close();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                timers.advance(now, conn -> conn.onTimer(now));
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                e.printStackTrace();
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Starts a graceful shutdown: idle connections are closed, the others
+     * after their current response
+     */
+    void drain() {
+        execute(() -> {
+            draining = true;
+            for (SelectionKey key : selector.keys()) {
+                Connection conn = (Connection) key.attachment();
+                if (conn != null) {
+                    conn.drain();
+                }
+            }
+        });
+    }
+
+    boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Called by a connection of this loop when it closes
+     */
+    void connectionClosed() {
+        connections--;
+    }
+
+    /**
+     * @return connections that are still open
+     */
+    int connections() {
+        return connections;
+    }
+
+    /**
+     * Stops the loop and closes every connection it owns
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                Connection conn = (Connection) key.attachment();
+                if (conn != null) {
+                    conn.close();
+                } else {
+                    closeQuietly(key.channel());
+                }
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            // already closed
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore, we are closing anyway
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking front end of the FunWebServer.
+ *
+ * One acceptor thread takes new connections from the ServerSocketChannel and
+ * spreads them round robin over a small set of EventLoops. The loops do all
+ * socket I/O with a Selector and never run request handling themselves:
+ * complete requests are handed to a pool of worker threads which call
+ * WebServer.createResponse. A slow handler (e.g. a GitHub call) therefore only
+ * occupies one worker and never blocks other connections.
+ */
+class EventLoopServer {
+
+    private final WebServer handler;
+    private final ServerSocketChannel serverChannel;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private final AccessLog accessLog = AccessLog.create(ServerConfig.ACCESS_LOG);
+    private final Thread acceptor;
+    private volatile boolean running = true;
+
+    /**
+     * Opens the server socket, nothing is accepted until start() is called
+     *
+     * @param port    to listen on, 0 picks a free port
+     * @param handler creates the responses
+     */
+    EventLoopServer(int port, WebServer handler) throws IOException {
+        this.handler = handler;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+
+        this.loops = new EventLoop[ServerConfig.EVENT_LOOPS];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(this, i);
+        }
+        this.workers = Executors.newFixedThreadPool(ServerConfig.WORKERS, namedThreads("worker-"));
+        this.acceptor = new Thread(this::acceptLoop, "acceptor");
+    }
+
+    void start() {
+        if (accessLog != null) {
+            accessLog.start();
+        }
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+        acceptor.start();
+        System.out.println("FunWebServer listening on port " + getPort() + " with "
+                + loops.length + " event loops and " + ServerConfig.WORKERS + " workers");
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                // server socket closed by shutdown()
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Blocks until the server has been shut down
+     */
+    void join() throws InterruptedException {
+        acceptor.join();
+        for (EventLoop loop : loops) {
+            loop.join();
+        }
+    }
+
+    /**
+     * Stops accepting, lets the requests in progress finish and closes idle
+     * keep-alive connections. Once every connection is closed, or graceMs
+     * passed, the rest is closed by shutdown().
+     *
+     * @param graceMs longest time to wait for the requests in progress
+     */
+    void shutdownGracefully(long graceMs) {
+        running = false;
+        EventLoop.closeQuietly(serverChannel);
+        for (EventLoop loop : loops) {
+            loop.drain();
+        }
+        long deadline = System.currentTimeMillis() + graceMs;
+        try {
+            while (openConnections() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int left = openConnections();
+        if (left > 0) {
+            System.out.println("Shutdown grace period over, closing " + left + " connections");
+        }
+        shutdown();
+    }
+
+    private int openConnections() {
+        int open = 0;
+        for (EventLoop loop : loops) {
+            open += loop.connections();
+        }
+        return open;
+    }
+
+    /**
+     * Stops accepting, closes all connections and stops the workers
+     */
+    void shutdown() {
+        running = false;
+        EventLoop.closeQuietly(serverChannel);
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+        workers.shutdownNow();
+        if (accessLog != null) {
+            accessLog.close();
+        }
+    }
+
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    WebServer getHandler() {
+        return handler;
+    }
+
+    ExecutorService getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return the access log or null if it is off
+     */
+    AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
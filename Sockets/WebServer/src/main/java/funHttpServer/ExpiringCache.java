@@ -0,0 +1,246 @@
+package funHttpServer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe cache for upstream responses.
+ *
+ * - Entries are fresh for ttlMs. After that they are served "stale" for up to
+ *   staleMs more while one background refresh replaces them
+ *   (stale-while-revalidate); older entries are loaded again.
+ * - Only one load per key runs at a time. Concurrent callers for the same key
+ *   wait for that load instead of all calling the upstream (single flight).
+ * - The cache holds at most maxEntries. When it grows beyond that, expired
+ *   entries and the least recently used ones are evicted in one batch, so the
+ *   scan cost is spread over many inserts.
+ *
+ * Lookups do not lock, counters are LongAdders so they are cheap to update
+ * from many threads. Loads are asynchronous: a loader returns a
+ * CompletableFuture and nobody blocks while it is running.
+ *
+ * @param <V> type of the cached values
+ */
+class ExpiringCache<V> {
+
+    /**
+     * Loads the value for a key on a miss
+     */
+    interface Loader<V> {
+        CompletableFuture<V> load();
+    }
+
+    private static class Entry<V> {
+        volatile V value;
+        volatile long loadedAt;
+        volatile long lastAccess;
+        final AtomicReference<CompletableFuture<V>> pending = new AtomicReference<>();
+    }
+
+    private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long ttlMs;
+    private final long staleMs;
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries upper bound of cached keys
+     * @param ttlMs      how long a value is fresh
+     * @param staleMs    how long after ttlMs a value may still be served while it is refreshed
+     */
+    ExpiringCache(int maxEntries, long ttlMs, long staleMs) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.staleMs = staleMs;
+    }
+
+    /**
+     * Returns the cached value or loads it
+     *
+     * @param key    cache key
+     * @param loader called on a miss, at most once concurrently per key
+     * @return completes with the value, or exceptionally if the load fails (failures are not cached)
+     */
+    CompletableFuture<V> get(String key, Loader<V> loader) {
+        long now = System.currentTimeMillis();
+        Entry<V> entry = entries.get(key);
+        if (entry != null) {
+            entry.lastAccess = now;
+            V value = entry.value;
+            long age = now - entry.loadedAt;
+            if (value != null && age < ttlMs) {
+                hits.increment();
+                return CompletableFuture.completedFuture(value);
+            }
+            if (value != null && age < ttlMs + staleMs) {
+                staleHits.increment();
+                // refresh in the background, nobody waits for it
+                startLoad(key, entry, loader);
+                return CompletableFuture.completedFuture(value);
+            }
+        }
+        misses.increment();
+
+        entry = entries.computeIfAbsent(key, k -> new Entry<>());
+        entry.lastAccess = now;
+        CompletableFuture<V> running = startLoad(key, entry, loader);
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+        return running;
+    }
+
+    /**
+     * @param key cache key
+     * @return the cached value even if it expired, null if there is none
+     */
+    V getIfPresent(String key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Starts a load for the entry unless one is running already. A loaded
+     * value goes back into the map even if the entry was evicted meanwhile;
+     * an entry that has no value is dropped if its load fails.
+     *
+     * @return the running load
+     */
+    private CompletableFuture<V> startLoad(String key, Entry<V> entry, Loader<V> loader) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        while (!entry.pending.compareAndSet(null, mine)) {
+            CompletableFuture<V> running = entry.pending.get();
+            if (running != null) {
+                // somebody else is loading this key already, share the result
+                coalesced.increment();
+                return running;
+            }
+        }
+
+        CompletableFuture<V> load;
+        try {
+            load = loader.load();
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((value, error) -> {
+            if (error == null) {
+                entry.value = value;
+                entry.loadedAt = System.currentTimeMillis();
+                entries.putIfAbsent(key, entry);
+            } else {
+                loadFailures.increment();
+                if (entry.value == null) {
+                    // nothing to serve, the next caller loads again with a new entry
+                    entries.remove(key, entry);
+                }
+            }
+            entry.pending.set(null);
+            if (error == null) {
+                mine.complete(value);
+            } else {
+                mine.completeExceptionally(UpstreamClient.unwrap(error));
+            }
+        });
+        return mine;
+    }
+
+    /**
+     * Drops entries that are too old to be served, then the least recently used
+     * ones until the cache is a tenth below its bound. Only one thread evicts at a time.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            List<Map.Entry<String, Entry<V>>> candidates = new ArrayList<>(entries.size());
+            for (Map.Entry<String, Entry<V>> e : entries.entrySet()) {
+                Entry<V> entry = e.getValue();
+                if (entry.pending.get() != null) {
+                    continue; // being loaded right now
+                }
+                if (now - entry.loadedAt >= ttlMs + staleMs) {
+                    remove(e.getKey(), entry);
+                } else {
+                    candidates.add(e);
+                }
+            }
+
+            int target = maxEntries - maxEntries / 10;
+            int excess = entries.size() - target;
+            if (excess > 0) {
+                candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+                for (int i = 0; i < excess && i < candidates.size(); i++) {
+                    Map.Entry<String, Entry<V>> e = candidates.get(i);
+                    remove(e.getKey(), e.getValue());
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Evicts the entry unless a load started on it while evict() was scanning,
+     * then it is put back so later callers keep sharing that load
+     */
+    private void remove(String key, Entry<V> entry) {
+        if (!entries.remove(key, entry)) {
+            return;
+        }
+        if (entry.pending.get() != null && entries.putIfAbsent(key, entry) == null) {
+            return;
+        }
+        evictions.increment();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long staleHits() {
+        return staleHits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long coalesced() {
+        return coalesced.sum();
+    }
+
+    long loadFailures() {
+        return loadFailures.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + " hits=" + hits() + " staleHits=" + staleHits() + " misses=" + misses()
+                + " coalesced=" + coalesced() + " loadFailures=" + loadFailures() + " evictions=" + evictions();
+    }
+}
@@ -0,0 +1,32 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * "/file/filename" shows the raw file (not as HTML) or shows an error.
+ *
+ * The file name is relative to ServerConfig.FILES_DIR (www/ unless set) and
+ * may not leave it. Large files can be downloaded in parts with Range
+ * requests (206 Partial Content), see ByteRanges.
+ */
+class FileHandler implements RouteHandler {
+
+    static final String PREFIX = "file/";
+
+    private final StaticFileHandler files = new StaticFileHandler(ServerConfig.FILES_DIR, request ->
+            Response.notFound(Response.HTML, "File not found: " + request.path.substring(PREFIX.length()))) {
+        @Override
+        String contentTypeFor(Path file) {
+            // raw file, do not let the browser render HTML
+            String type = contentType(file);
+            return type.equals(Response.HTML) ? Response.TEXT : type;
+        }
+    };
+
+    @Override
+    public Response handle(Request request) throws IOException {
+        // take the path and clean it. try to open the file
+        return files.serve(request, request.path.substring(PREFIX.length()));
+    }
+}
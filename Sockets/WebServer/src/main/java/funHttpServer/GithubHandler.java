@@ -0,0 +1,151 @@
+package funHttpServer;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * "/github?query=users/amehlhase316/repos" lists the repositories returned by
+ * the GitHub API for the query. The GitHub call is asynchronous, no thread
+ * waits for it.
+ *
+ * The answer is streamed: once GitHub's header is there and its body starts
+ * with "[", the page is sent with Transfer-Encoding: chunked while a stream
+ * thread parses one repository object after the other from the upstream body
+ * (JSONTokener) and writes its list item. Neither the GitHub JSON nor the page
+ * is held in memory as a whole, and the first bytes reach the client before
+ * the last repository has arrived.
+ */
+class GithubHandler implements AsyncRouteHandler {
+
+    /**
+     * Pieces of the page that may wait for a slow client
+     */
+    private static final int STREAM_BUFFER = 64;
+
+    private final UpstreamClient upstream;
+    private final Executor streams;
+
+    /**
+     * @param upstream used to make the GitHub call
+     * @param streams  runs the threads that read GitHub's body and write the page
+     */
+    GithubHandler(UpstreamClient upstream, Executor streams) {
+        this.upstream = upstream;
+        this.streams = streams;
+    }
+
+    @Override
+    public CompletableFuture<Response> handleAsync(Request request) {
+        try {
+            // Parse the query string and verify that the "query" parameter is present
+            QueryParams queryPairs = request.queryParams();
+            if (!queryPairs.has("query")) {
+                return CompletableFuture.completedFuture(
+                        Response.badRequest(Response.TEXT, "Missing 'query' parameter."));
+            }
+            String query = queryPairs.get("query");
+            CompletableFuture<Response> response = new CompletableFuture<>();
+            upstream.stream(ServerConfig.GITHUB_BASE_URL + query)
+                    .thenAccept(body -> streams.execute(() -> render(body, response)))
+                    .exceptionally(e -> {
+                        response.complete(error(e));
+                        return null;
+                    });
+            return response;
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(error(e));
+        }
+    }
+
+    /**
+     * Streams an HTML page displaying each repository's full_name, id, and owner's login.
+     * Completes the response as soon as the JSON is known to be an array; errors
+     * before that are a 500, later ones cut the chunked response short.
+     *
+     * @param json     the GitHub answer, a JSON array of repositories
+     * @param response completed with the streamed page or an error
+     */
+    private static void render(InputStream json, CompletableFuture<Response> response) {
+        ChunkedBody page = null;
+        try (Reader reader = new InputStreamReader(json, StandardCharsets.UTF_8)) {
+            JSONTokener repos = new JSONTokener(reader);
+            if (repos.nextClean() != '[') {
+                throw repos.syntaxError("A JSONArray text must start with '['");
+            }
+            page = new ChunkedBody(STREAM_BUFFER);
+            response.complete(Response.chunked(Response.HTML, page));
+            if (!page.write(bytes("<html><body><h2>GitHub Repositories:</h2><ul>"))) {
+                return;
+            }
+
+            char next = repos.nextClean();
+            if (next != ']') {
+                repos.back();
+                while (true) {
+                    // one repository at a time, the rest is still on the wire
+                    JSONObject repo = new JSONObject(repos);
+                    if (!page.write(bytes(item(repo)))) {
+                        return; // client went away
+                    }
+                    next = repos.nextClean();
+                    if (next == ']') {
+                        break;
+                    }
+                    if (next != ',') {
+                        throw repos.syntaxError("Expected a ',' or ']'");
+                    }
+                }
+            }
+            if (page.write(bytes("</ul></body></html>"))) {
+                page.end();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(page, response, e);
+        } catch (Exception e) {
+            fail(page, response, e);
+        }
+    }
+
+    private static String item(JSONObject repo) {
+        String fullName = repo.getString("full_name");
+        int id = repo.getInt("id");
+        String ownerLogin = repo.getJSONObject("owner").getString("login");
+        return "<li>"
+                + "Full Name: " + fullName + "<br>"
+                + "ID: " + id + "<br>"
+                + "Owner: " + ownerLogin
+                + "</li><br>";
+    }
+
+    private static byte[] bytes(String html) {
+        return html.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void fail(ChunkedBody page, CompletableFuture<Response> response, Exception e) {
+        if (page == null) {
+            response.complete(error(e));
+        } else {
+            // the head is out already, all we can do is end the response early
+            page.fail(e);
+        }
+    }
+
+    private static Response error(Throwable e) {
+        Throwable cause = UpstreamClient.unwrap(e);
+        if (cause instanceof UpstreamClient.CircuitOpenException) {
+            // GitHub is failing, no need to wait for it
+            return ((UpstreamClient.CircuitOpenException) cause).toResponse();
+        }
+        // If any error occurs (such as network issues or JSON parsing problems), return a 500 error
+        return Response.serverError("Error fetching or parsing GitHub response: "
+                + UpstreamClient.describe(e));
+    }
+}
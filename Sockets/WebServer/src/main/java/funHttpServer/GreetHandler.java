@@ -0,0 +1,38 @@
+package funHttpServer;
+
+/**
+ * "/greet?name=Alice&lang=en" sends a personalized greeting in the requested language
+ */
+class GreetHandler implements RouteHandler {
+
+    @Override
+    public Response handle(Request request) {
+        try {
+            QueryParams queryPairs = request.queryParams();
+            if (!queryPairs.has("name") || !queryPairs.has("lang")) {
+                return Response.badRequest(Response.TEXT, "Missing parameters. Usage: /greet?name=Alice&lang=en");
+            }
+            String name = queryPairs.get("name");
+            String lang = queryPairs.get("lang").toLowerCase();
+            String greeting;
+            switch (lang) {
+                case "fr":
+                    greeting = "Bonjour";
+                    break;
+                case "es":
+                    greeting = "Hola";
+                    break;
+                case "de":
+                    greeting = "Hallo";
+                    break;
+                case "en":
+                default:
+                    greeting = "Hello";
+                    break;
+            }
+            return Response.ok(Response.TEXT, greeting + ", " + name + "!");
+        } catch (Exception e) {
+            return Response.serverError("Unexpected error: " + e.getMessage());
+        }
+    }
+}
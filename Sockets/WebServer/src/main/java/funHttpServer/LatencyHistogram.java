@@ -0,0 +1,109 @@
+package funHttpServer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in the style of HdrHistogram: every power of two is
+ * split into SUB_BUCKETS / 2 linear steps, so a value is reported at most
+ * about 6% too high, from one microsecond up to more than a day.
+ *
+ * record() only increments LongAdders, which are striped per thread, so
+ * concurrent requests do not contend and nothing is locked. Percentiles are
+ * computed from a snapshot of the counts when /metrics is read.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 32;
+
+    private final LongAdder[] counts = new LongAdder[SUB_BUCKETS + MAGNITUDES * (SUB_BUCKETS / 2)];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos measured duration
+     */
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts[index(micros)].increment();
+        count.increment();
+        sumMicros.add(micros);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of all recorded durations in seconds
+     */
+    double sumSeconds() {
+        return sumMicros.sum() / 1e6;
+    }
+
+    /**
+     * @param quantiles e.g. 0.5, 0.99, 0.999
+     * @return for each quantile the upper bound of its bucket in seconds, NaN if nothing was recorded
+     */
+    double[] quantileSeconds(double... quantiles) {
+        long[] snapshot = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        double[] result = new double[quantiles.length];
+        if (total == 0) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+        for (int q = 0; q < quantiles.length; q++) {
+            long rank = Math.max(1, (long) Math.ceil(quantiles[q] * total));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    result[q] = upperBound(i) / 1e6;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Values below SUB_BUCKETS get a bucket each, above that every power of
+     * two is split into SUB_BUCKETS / 2 buckets
+     */
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS + 1;
+        if (magnitude > MAGNITUDES) {
+            return SUB_BUCKETS + MAGNITUDES * (SUB_BUCKETS / 2) - 1;
+        }
+        int sub = (int) (micros >>> magnitude) - SUB_BUCKETS / 2;
+        return SUB_BUCKETS + (magnitude - 1) * (SUB_BUCKETS / 2) + sub;
+    }
+
+    /**
+     * @return largest value in microseconds that falls into the bucket
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index - SUB_BUCKETS) / (SUB_BUCKETS / 2) + 1;
+        int sub = (index - SUB_BUCKETS) % (SUB_BUCKETS / 2) + SUB_BUCKETS / 2;
+        return ((long) (sub + 1) << magnitude) - 1;
+    }
+}
@@ -0,0 +1,494 @@
+package funHttpServer;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for the servers of this repository. It starts the server in
+ * this JVM, GitHub and OpenWeather replaced by an UpstreamStub, so a run needs
+ * no network and can be repeated per commit. Everything is set with system
+ * properties:
+ *
+ * load.server      fun (funHttpServer.WebServer), http (httpServer.WebServer),
+ *                  simple (SimpleWebServer, if on the classpath) or url
+ * load.target      base URL of an already running server when load.server=url
+ * load.mode        closed: every connection sends its next request as soon as
+ *                  the last one is answered; open: requests are sent at
+ *                  load.rate whether or not the server keeps up
+ * load.connections client connections (one thread each)
+ * load.rate        requests per second over all connections, needed by open;
+ *                  in closed mode every connection sends at most its share
+ *                  of it, and less when the answers take longer than that
+ * load.keepAlive   false opens a connection per request
+ * load.mix         routes with weights, e.g. "/:3,/multiply?num1=3&num2=4:1"
+ * load.durationSec, load.warmupSec
+ * load.report      CSV file a line per run is appended to
+ * stub.*           latency, errors and payload of the stubbed upstreams, see
+ *                  UpstreamStub.fromProperties()
+ *
+ * Latency is reported twice. Service time runs from sending a request to the
+ * end of its response. Response time also counts the time a request should
+ * have been sent already but was not because the connection was still busy
+ * ("coordinated omission"): in open mode it runs from the planned send time,
+ * in closed mode with load.rate each response slower than the planned
+ * interval adds the requests that interval would have sent, as HdrHistogram's
+ * recordValueWithExpectedInterval does. Without load.rate a closed run cannot
+ * be corrected and both are the same.
+ */
+class LoadGenerator {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+
+    /**
+     * A route of the mix with what was measured for it
+     */
+    private static final class Route {
+        final String path;
+        final int weight;
+        final LatencyHistogram response = new LatencyHistogram();
+
+        Route(String path, int weight) {
+            this.path = path;
+            this.weight = weight;
+        }
+    }
+
+    private final String server = System.getProperty("load.server", "fun");
+    private final boolean open = System.getProperty("load.mode", "closed").equals("open");
+    private final int connections = Integer.getInteger("load.connections", 16);
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "0"));
+    private final boolean keepAlive = Boolean.parseBoolean(System.getProperty("load.keepAlive", "true"));
+    private final long durationNanos = Long.getLong("load.durationSec", 10) * 1_000_000_000L;
+    private final long warmupNanos = Long.getLong("load.warmupSec", 2) * 1_000_000_000L;
+    private final List<Route> routes = new ArrayList<>();
+    private final int totalWeight;
+
+    private final LatencyHistogram service = new LatencyHistogram();
+    private final LatencyHistogram response = new LatencyHistogram();
+    /**
+     * responses per status class, index 0 counts I/O errors
+     */
+    private final LongAdder[] statuses = new LongAdder[6];
+
+    private LoadGenerator() {
+        String mix = System.getProperty("load.mix", server.equals("fun")
+                ? "/:4,/json:2,/multiply?num1=3&num2=4:2,/github?query=users/stub/repos:1,/weather?city=Tempe&unit=c:1"
+                : "/README.md:1");
+        int weights = 0;
+        for (String entry : mix.split(",")) {
+            int colon = entry.lastIndexOf(':');
+            int weight = colon < 0 ? 1 : Integer.parseInt(entry.substring(colon + 1).trim());
+            routes.add(new Route((colon < 0 ? entry : entry.substring(0, colon)).trim(), weight));
+            weights += weight;
+        }
+        totalWeight = weights;
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = new LongAdder();
+        }
+        if (open && rate <= 0) {
+            throw new IllegalArgumentException("load.mode=open needs load.rate");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator().run();
+    }
+
+    private void run() throws Exception {
+        PrintStream console = System.out;
+        UpstreamStub stub = UpstreamStub.fromProperties();
+        // the servers print per request, that would measure the console
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        Runnable stop = () -> { };
+        URI target;
+        try {
+            switch (server) {
+                case "fun":
+                    // set before ServerConfig is loaded, unless given on the command line
+                    defaultProperty("funHttpServer.githubBaseUrl", stub.url());
+                    defaultProperty("funHttpServer.weatherBaseUrl", stub.url());
+                    defaultProperty("funHttpServer.accessLog", "off");
+                    defaultProperty("funHttpServer.rateLimits", ""); // all requests come from one client
+                    EventLoopServer fun = new WebServer().start(0);
+                    stop = fun::shutdown;
+                    target = URI.create("http://127.0.0.1:" + fun.getPort());
+                    break;
+                case "http":
+                    target = startMain("httpServer.WebServer");
+                    break;
+                case "simple":
+                    target = startMain("SimpleWebServer", System.getProperty("load.simpleMode", "pool"));
+                    break;
+                case "url":
+                    target = URI.create(System.getProperty("load.target", "http://localhost:9000"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown load.server " + server);
+            }
+
+            console.printf(Locale.ROOT, "%s %s, %s, %d connections, %s, %d s after %d s warm-up%n", server, target,
+                    open ? "open loop" : "closed loop", connections, keepAlive ? "keep-alive" : "connection per request",
+                    durationNanos / 1_000_000_000L, warmupNanos / 1_000_000_000L);
+            console.println(rate > 0 ? "rate " + rate + " requests/s" : "rate unlimited");
+
+            long start = System.nanoTime() + 10_000_000L;
+            long measureFrom = start + warmupNanos;
+            long end = measureFrom + durationNanos;
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                int index = i;
+                Thread worker = new Thread(() -> work(index, target, start, measureFrom, end), "load-" + i);
+                worker.start();
+                workers.add(worker);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            report(console, durationNanos);
+        } finally {
+            stop.run();
+            stub.stop();
+            System.setOut(console);
+        }
+        // the in-process http and simple servers have no way to stop
+        System.exit(0);
+    }
+
+    /**
+     * One connection: sends requests until end, records those finished after measureFrom
+     */
+    private void work(int index, URI target, long start, long measureFrom, long end) {
+        long interval = rate > 0 ? (long) (connections * 1e9 / rate) : 0;
+        // spread the connections over the interval so they do not send at the same time
+        long planned = start + interval * index / connections;
+        Client client = new Client(target, keepAlive);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (planned - now > 0) {
+                    // open mode and a closed loop with load.rate wait for the planned send time
+                    LockSupport.parkNanos(planned - now);
+                } else if (!open) {
+                    // a closed loop that fell behind sends right away
+                    planned = now;
+                }
+                if (planned - end >= 0) {
+                    return;
+                }
+                Route route = pick(random.nextInt(totalWeight));
+                long sent = System.nanoTime();
+                int status;
+                try {
+                    status = client.get(route.path);
+                } catch (IOException e) {
+                    client.close();
+                    status = 0;
+                }
+                long done = System.nanoTime();
+                if (done - measureFrom >= 0 && done - end < 0) {
+                    record(route, status, done - sent, done - planned, interval);
+                }
+                planned = open ? planned + interval : Math.max(planned + interval, done);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    private Route pick(int point) {
+        for (Route route : routes) {
+            point -= route.weight;
+            if (point < 0) {
+                return route;
+            }
+        }
+        return routes.get(routes.size() - 1);
+    }
+
+    private void record(Route route, int status, long serviceNanos, long responseNanos, long interval) {
+        statuses[Math.min(status / 100, 5)].increment();
+        service.record(serviceNanos);
+        response.record(responseNanos);
+        route.response.record(responseNanos);
+        if (!open && interval > 0) {
+            // the requests this connection would have sent while it waited
+            for (long missed = responseNanos - interval; missed >= interval; missed -= interval) {
+                response.record(missed);
+                route.response.record(missed);
+            }
+        }
+    }
+
+    private void report(PrintStream out, long nanos) throws IOException {
+        long requests = service.count();
+        double throughput = requests * 1e9 / nanos;
+        long errors = statuses[0].sum() + statuses[5].sum();
+        out.printf(Locale.ROOT, "requests %d, %.1f/s, 2xx %d, 3xx %d, 4xx %d, 5xx %d, I/O errors %d%n", requests,
+                throughput, statuses[2].sum(), statuses[3].sum(), statuses[4].sum(), statuses[5].sum(),
+                statuses[0].sum());
+        out.printf("%-24s %9s %9s %9s %9s %9s%n", "latency ms", "p50", "p90", "p99", "p99.9", "max");
+        double[] corrected = response.quantileSeconds(QUANTILES);
+        line(out, "service time", service.quantileSeconds(QUANTILES));
+        line(out, "response time", corrected);
+        for (Route route : routes) {
+            line(out, "  " + route.path, route.response.quantileSeconds(QUANTILES));
+        }
+        if (!open && rate <= 0) {
+            out.println("(closed loop without load.rate: response time is not corrected for coordinated omission)");
+        }
+
+        String report = System.getProperty("load.report");
+        if (report != null) {
+            boolean header = !Files.exists(Paths.get(report));
+            try (PrintWriter csv = new PrintWriter(new FileWriter(report, StandardCharsets.UTF_8, true))) {
+                if (header) {
+                    csv.println("time,server,mode,keepAlive,connections,rate,requests,throughput,errors,"
+                            + "p50_ms,p90_ms,p99_ms,p999_ms,max_ms");
+                }
+                csv.printf(Locale.ROOT, "%d,%s,%s,%b,%d,%.1f,%d,%.1f,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n",
+                        System.currentTimeMillis() / 1000, server, open ? "open" : "closed", keepAlive, connections,
+                        rate, requests, throughput, errors, corrected[0] * 1e3, corrected[1] * 1e3,
+                        corrected[2] * 1e3, corrected[3] * 1e3, corrected[4] * 1e3);
+            }
+        }
+    }
+
+    private static void line(PrintStream out, String name, double[] seconds) {
+        out.printf(Locale.ROOT, "%-24s", name);
+        for (double value : seconds) {
+            out.printf(Locale.ROOT, " %9.3f", value * 1e3);
+        }
+        out.println();
+    }
+
+    private static void defaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Runs the main method of a server that takes its port as first argument
+     * on a daemon thread and waits until it accepts connections
+     */
+    private static URI startMain(String className, String... more) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Method main;
+        try {
+            main = Class.forName(className).getMethod("main", String[].class);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(className + " is not on the classpath, start it yourself and use"
+                    + " load.server=url", e);
+        } catch (LinkageError e) {
+            // e.g. SimpleWebServer is compiled for Java 21
+            throw new IllegalStateException(className + " cannot be loaded on Java " + Runtime.version().feature()
+                    + ", run the load test with the Java it was built for or start it yourself and use"
+                    + " load.server=url", e);
+        }
+        main.setAccessible(true); // the class itself is package private
+        String[] args = new String[more.length + 1];
+        args[0] = Integer.toString(port);
+        System.arraycopy(more, 0, args, 1, more.length);
+        Thread thread = new Thread(() -> {
+            try {
+                main.invoke(null, (Object) args);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, className);
+        thread.setDaemon(true);
+        thread.start();
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 200);
+                return URI.create("http://127.0.0.1:" + port);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IllegalStateException(className + " did not start", e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /**
+     * A blocking HTTP/1.1 client connection that reads and drops response
+     * bodies. Also copes with the simple servers that answer with a bare
+     * body and close the connection.
+     */
+    private static final class Client {
+        private final String host;
+        private final int port;
+        private final boolean keepAlive;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private final StringBuilder line = new StringBuilder();
+        private final byte[] skip = new byte[8192];
+
+        Client(URI target, boolean keepAlive) {
+            this.host = target.getHost();
+            this.port = target.getPort() < 0 ? 80 : target.getPort();
+            this.keepAlive = keepAlive;
+        }
+
+        /**
+         * @return status code of the response
+         */
+        int get(String path) throws IOException {
+            boolean reused = socket != null;
+            if (!reused) {
+                connect();
+            }
+            try {
+                return exchange(path);
+            } catch (EOFException e) {
+                if (!reused) {
+                    throw e;
+                }
+                // the server closed the idle connection just before the request, try a new one once
+                close();
+                connect();
+                return exchange(path);
+            }
+        }
+
+        private int exchange(String path) throws IOException {
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n"
+                    + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            String status = readLine();
+            if (status == null) {
+                throw new EOFException("Connection closed before the response");
+            }
+            if (!status.startsWith("HTTP/")) {
+                // a bare body, it ends with the connection
+                drainToEnd();
+                close();
+                return 200;
+            }
+            int code = Integer.parseInt(status.substring(9, 12));
+            long length = -1;
+            boolean chunked = false;
+            boolean closeAfter = !keepAlive || status.startsWith("HTTP/1.0");
+            String header;
+            while ((header = readLine()) != null && !header.isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    length = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    closeAfter |= value.equalsIgnoreCase("close");
+                }
+            }
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0) {
+                    drain(size);
+                    readLine();
+                }
+                while (!readLine().isEmpty()) {
+                    // trailers
+                }
+            } else if (length >= 0) {
+                drain(length);
+            } else {
+                drainToEnd();
+                closeAfter = true;
+            }
+            if (closeAfter) {
+                close();
+            }
+            return code;
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        /**
+         * @return the line without CRLF, null at the end of the stream
+         */
+        private String readLine() throws IOException {
+            line.setLength(0);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    if (line.length() == 0) {
+                        return null;
+                    }
+                    throw new EOFException("Connection closed in the middle of a line");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        /**
+         * Reads and drops length bytes
+         */
+        private void drain(long length) throws IOException {
+            while (length > 0) {
+                int n = in.read(skip, 0, (int) Math.min(skip.length, length));
+                if (n < 0) {
+                    throw new EOFException("Connection closed in the middle of the body");
+                }
+                length -= n;
+            }
+        }
+
+        /**
+         * Reads and drops everything up to the end of the stream
+         */
+        private void drainToEnd() throws IOException {
+            while (in.read(skip) >= 0) {
+                // dropped
+            }
+        }
+
+        void close() {
+            if (socket != null) {
+                EventLoop.closeQuietly(socket);
+                socket = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package funHttpServer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * "/metrics" shows the server's counters in the Prometheus text format:
+ * requests per route and status, requests in flight, bytes sent, latency
+ * per route (p50, p99, p99.9 as a summary), the weather cache and the
+ * latency, hedging and circuit breakers of the upstream calls.
+ */
+class MetricsHandler implements RouteHandler {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final Supplier<List<Router.Route>> routes;
+    private final UpstreamClient upstream;
+    private final LongAdder bytesOut;
+    private final ConcurrencyLimiter admission;
+
+    /**
+     * @param routes    the routes of the server
+     * @param upstream  client of the upstream calls
+     * @param bytesOut  bytes written to clients including the heads
+     * @param admission the server wide concurrency limit
+     */
+    MetricsHandler(Supplier<List<Router.Route>> routes, UpstreamClient upstream, LongAdder bytesOut,
+                   ConcurrencyLimiter admission) {
+        this.routes = routes;
+        this.upstream = upstream;
+        this.bytesOut = bytesOut;
+        this.admission = admission;
+    }
+
+    @Override
+    public Response handle(Request request) {
+        StringBuilder out = new StringBuilder(4096);
+        List<Router.Route> all = routes.get();
+
+        type(out, "funhttp_requests_total", "counter", "Requests answered per route and status code");
+        for (Router.Route route : all) {
+            // sorted so the output is stable
+            for (Map.Entry<Integer, LongAdder> status : new TreeMap<>(route.metrics.statuses()).entrySet()) {
+                out.append("funhttp_requests_total{route=\"").append(route.name)
+                        .append("\",code=\"").append(status.getKey()).append("\"} ")
+                        .append(status.getValue().sum()).append('\n');
+            }
+        }
+
+        type(out, "funhttp_requests_in_flight", "gauge", "Requests being handled per route");
+        for (Router.Route route : all) {
+            sample(out, "funhttp_requests_in_flight", "route", route.name, route.metrics.inFlight());
+        }
+
+        type(out, "funhttp_response_body_bytes_total", "counter", "Body bytes of the responses per route");
+        for (Router.Route route : all) {
+            sample(out, "funhttp_response_body_bytes_total", "route", route.name, route.metrics.bodyBytes());
+        }
+
+        type(out, "funhttp_admission_in_flight", "gauge", "Admitted requests, server wide and per limited route");
+        out.append("funhttp_admission_in_flight ").append(admission.inFlight()).append('\n');
+        for (Router.Route route : all) {
+            if (route.limiter != null) {
+                sample(out, "funhttp_admission_in_flight", "route", route.name, route.limiter.inFlight());
+            }
+        }
+        type(out, "funhttp_admission_queued", "gauge", "Requests waiting for a slot");
+        out.append("funhttp_admission_queued ").append(admission.queued()).append('\n');
+        for (Router.Route route : all) {
+            if (route.limiter != null) {
+                sample(out, "funhttp_admission_queued", "route", route.name, route.limiter.queued());
+            }
+        }
+        type(out, "funhttp_admission_rejected_total", "counter", "Requests answered with 503 because there was no room");
+        out.append("funhttp_admission_rejected_total ").append(admission.rejected()).append('\n');
+        for (Router.Route route : all) {
+            if (route.limiter != null) {
+                sample(out, "funhttp_admission_rejected_total", "route", route.name, route.limiter.rejected());
+            }
+        }
+
+        type(out, "funhttp_rate_limited_total", "counter", "Requests answered with 429 per route");
+        for (Router.Route route : all) {
+            if (route.rateLimiter != null) {
+                sample(out, "funhttp_rate_limited_total", "route", route.name, route.rateLimiter.limited());
+            }
+        }
+        type(out, "funhttp_rate_limit_clients", "gauge", "Clients with a rate limit bucket per route");
+        for (Router.Route route : all) {
+            if (route.rateLimiter != null) {
+                sample(out, "funhttp_rate_limit_clients", "route", route.name, route.rateLimiter.clients());
+            }
+        }
+
+        type(out, "funhttp_bytes_out_total", "counter", "Bytes written to clients including the heads");
+        out.append("funhttp_bytes_out_total ").append(bytesOut.sum()).append('\n');
+
+        type(out, "funhttp_request_duration_seconds", "summary", "Time from calling the handler to the finished response");
+        for (Router.Route route : all) {
+            summary(out, "funhttp_request_duration_seconds", "route", route.name, route.metrics.latency());
+        }
+
+        ExpiringCache<String> weather = WeatherHandler.weatherCache;
+        type(out, "funhttp_weather_cache_requests_total", "counter", "Weather cache lookups by result");
+        sample(out, "funhttp_weather_cache_requests_total", "result", "hit", weather.hits());
+        sample(out, "funhttp_weather_cache_requests_total", "result", "stale", weather.staleHits());
+        sample(out, "funhttp_weather_cache_requests_total", "result", "miss", weather.misses());
+        sample(out, "funhttp_weather_cache_requests_total", "result", "coalesced", weather.coalesced());
+        type(out, "funhttp_weather_cache_load_failures_total", "counter", "Failed OpenWeather loads");
+        out.append("funhttp_weather_cache_load_failures_total ").append(weather.loadFailures()).append('\n');
+        type(out, "funhttp_weather_cache_evictions_total", "counter", "Entries evicted from the weather cache");
+        out.append("funhttp_weather_cache_evictions_total ").append(weather.evictions()).append('\n');
+        type(out, "funhttp_weather_cache_entries", "gauge", "Entries in the weather cache");
+        out.append("funhttp_weather_cache_entries ").append(weather.size()).append('\n');
+
+        Map<String, UpstreamClient.HostMetrics> hosts = new TreeMap<>(upstream.metrics());
+        type(out, "funhttp_upstream_request_duration_seconds", "summary", "Latency of the upstream calls per host");
+        for (Map.Entry<String, UpstreamClient.HostMetrics> host : hosts.entrySet()) {
+            summary(out, "funhttp_upstream_request_duration_seconds", "upstream", host.getKey(), host.getValue().latency);
+        }
+        type(out, "funhttp_upstream_failures_total", "counter", "Upstream calls that failed or answered with an error");
+        for (Map.Entry<String, UpstreamClient.HostMetrics> host : hosts.entrySet()) {
+            sample(out, "funhttp_upstream_failures_total", "upstream", host.getKey(), host.getValue().failures.sum());
+        }
+        type(out, "funhttp_upstream_hedged_total", "counter", "Upstream calls sent a second time because they were slow");
+        for (Map.Entry<String, UpstreamClient.HostMetrics> host : hosts.entrySet()) {
+            sample(out, "funhttp_upstream_hedged_total", "upstream", host.getKey(), host.getValue().hedges.sum());
+        }
+        type(out, "funhttp_upstream_short_circuited_total", "counter", "Upstream calls not made because the breaker was open");
+        for (Map.Entry<String, UpstreamClient.HostMetrics> host : hosts.entrySet()) {
+            sample(out, "funhttp_upstream_short_circuited_total", "upstream", host.getKey(),
+                    host.getValue().shortCircuited.sum());
+        }
+        type(out, "funhttp_upstream_circuit_state", "gauge", "Circuit breaker state: 0 closed, 1 half open, 2 open");
+        for (Map.Entry<String, UpstreamClient.HostMetrics> host : hosts.entrySet()) {
+            CircuitBreaker.State state = host.getValue().breaker.state();
+            sample(out, "funhttp_upstream_circuit_state", "upstream", host.getKey(),
+                    state == CircuitBreaker.State.CLOSED ? 0 : state == CircuitBreaker.State.HALF_OPEN ? 1 : 2);
+        }
+
+        return Response.ok(CONTENT_TYPE, out.toString());
+    }
+
+    private static void type(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String label, String value, long sample) {
+        out.append(name).append('{').append(label).append("=\"").append(escape(value)).append("\"} ")
+                .append(sample).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String label, String value, LatencyHistogram histogram) {
+        String labels = label + "=\"" + escape(value) + "\"";
+        double[] quantiles = histogram.quantileSeconds(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            out.append(name).append('{').append(labels).append(",quantile=\"").append(QUANTILES[i]).append("\"} ")
+                    .append(quantiles[i]).append('\n');
+        }
+        out.append(name).append("_sum{").append(labels).append("} ").append(histogram.sumSeconds()).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(histogram.count()).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,29 @@
+package funHttpServer;
+
+/**
+ * "/multiply?num1=3&num2=4" multiplies the two inputs and responses with the result
+ */
+class MultiplyHandler implements RouteHandler {
+
+    @Override
+    public Response handle(Request request) {
+        // Look up the parameters in the query string
+        QueryParams queryPairs = request.queryParams();
+
+        // Check if both parameters exist
+        if (!queryPairs.has("num1") || !queryPairs.has("num2")) {
+            return Response.badRequest(Response.TEXT, "Missing parameters. Please provide both num1 and num2.");
+        }
+        try {
+            // Try to parse the parameters as integers
+            int num1 = Integer.parseInt(queryPairs.get("num1"));
+            int num2 = Integer.parseInt(queryPairs.get("num2"));
+            int result = num1 * num2;
+
+            return Response.ok(Response.TEXT, "Result is: " + result);
+        } catch (NumberFormatException ex) {
+            // Handle the case where the parameters are not valid integers
+            return Response.badRequest(Response.TEXT, "Invalid input. Both num1 and num2 must be valid integers.");
+        }
+    }
+}
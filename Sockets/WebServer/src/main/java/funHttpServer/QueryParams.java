@@ -0,0 +1,192 @@
+package funHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only view of the parameters in a query string like
+ * "q=hello+world%2Fme&bob=5" without splitting it up.
+ *
+ * The query is indexed once (where each name and value starts and ends), a
+ * lookup by name compares in place and only the value that is asked for is
+ * decoded, so no map and no substrings for unused parameters are created.
+ * A parameter without "=" has the value "", malformed %-escapes are kept as
+ * they are, and parameters after the first maxParams are ignored. A repeated
+ * name has the value of its last occurrence, as in the map splitQuery built.
+ */
+final class QueryParams {
+
+    static final QueryParams EMPTY = new QueryParams("", 0);
+
+    private final String query;
+    private final int maxParams;
+
+    /**
+     * start of the name, index of "=" (or -1) and end of each parameter, filled on first use
+     */
+    private int[] bounds;
+    private int count;
+
+    /**
+     * @param query     the query without "?"
+     * @param maxParams most parameters looked at
+     */
+    QueryParams(String query, int maxParams) {
+        this.query = query;
+        this.maxParams = maxParams;
+    }
+
+    /**
+     * @param name parameter name, decoded
+     * @return the decoded value of the last parameter with that name, "" if it has no value, null if missing
+     */
+    String get(String name) {
+        int i = find(name);
+        return i < 0 ? null : value(i);
+    }
+
+    /**
+     * @param name parameter name, decoded
+     * @return true if the parameter is in the query, with or without value
+     */
+    boolean has(String name) {
+        return find(name) >= 0;
+    }
+
+    /**
+     * @return number of parameters (at most maxParams)
+     */
+    int size() {
+        index();
+        return count;
+    }
+
+    /**
+     * @param i index of the parameter
+     * @return its decoded name
+     */
+    String name(int i) {
+        index();
+        int eq = bounds[i * 3 + 1];
+        return decode(bounds[i * 3], eq < 0 ? bounds[i * 3 + 2] : eq);
+    }
+
+    /**
+     * @param i index of the parameter
+     * @return its decoded value, "" if it has no "="
+     */
+    String value(int i) {
+        index();
+        int eq = bounds[i * 3 + 1];
+        return eq < 0 ? "" : decode(eq + 1, bounds[i * 3 + 2]);
+    }
+
+    private int find(String name) {
+        index();
+        // from the end, the last occurrence of a name wins
+        for (int i = count - 1; i >= 0; i--) {
+            int start = bounds[i * 3];
+            int eq = bounds[i * 3 + 1];
+            int end = eq < 0 ? bounds[i * 3 + 2] : eq;
+            if (nameEquals(start, end, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void index() {
+        if (bounds != null) {
+            return;
+        }
+        int pairs = 1;
+        for (int i = 0; i < query.length(); i++) {
+            if (query.charAt(i) == '&') {
+                pairs++;
+            }
+        }
+        int[] found = new int[Math.min(pairs, maxParams) * 3];
+        int n = 0;
+        int start = 0;
+        while (start <= query.length() && n < maxParams) {
+            int end = query.indexOf('&', start);
+            if (end < 0) {
+                end = query.length();
+            }
+            if (end > start) {
+                // "a=1&&b=2" has no empty parameter in between
+                int eq = query.indexOf('=', start);
+                found[n * 3] = start;
+                found[n * 3 + 1] = eq >= 0 && eq < end ? eq : -1;
+                found[n * 3 + 2] = end;
+                n++;
+            }
+            start = end + 1;
+        }
+        count = n;
+        bounds = found;
+    }
+
+    private boolean nameEquals(int start, int end, String name) {
+        for (int i = start; i < end; i++) {
+            char c = query.charAt(i);
+            if (c == '%' || c == '+') {
+                // encoded name, rare enough to decode it
+                return decode(start, end).equals(name);
+            }
+        }
+        return end - start == name.length() && query.regionMatches(start, name, 0, name.length());
+    }
+
+    /**
+     * Percent-decoding as URLDecoder does it ("+" is a space), but without
+     * throwing on broken escapes and without copying when there is nothing to decode
+     */
+    private String decode(int start, int end) {
+        int first = -1;
+        for (int i = start; i < end; i++) {
+            char c = query.charAt(i);
+            if (c == '%' || c == '+') {
+                first = i;
+                break;
+            }
+        }
+        if (first < 0) {
+            return query.substring(start, end);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(end - start);
+        byte[] plain = query.substring(start, first).getBytes(StandardCharsets.UTF_8);
+        out.write(plain, 0, plain.length);
+        int i = first;
+        while (i < end) {
+            char c = query.charAt(i);
+            if (c == '+') {
+                out.write(' ');
+                i++;
+            } else if (c == '%' && hex(i + 1, end) >= 0 && hex(i + 2, end) >= 0) {
+                out.write(hex(i + 1, end) * 16 + hex(i + 2, end));
+                i += 3;
+            } else if (c < 0x80) {
+                out.write(c);
+                i++;
+            } else {
+                // raw non ASCII text, keep it as UTF-8
+                int next = i + 1;
+                if (Character.isHighSurrogate(c) && next < end) {
+                    next++;
+                }
+                byte[] bytes = query.substring(i, next).getBytes(StandardCharsets.UTF_8);
+                out.write(bytes, 0, bytes.length);
+                i = next;
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return value of the hex digit at i, -1 if there is none
+     */
+    private int hex(int i, int end) {
+        return i < end ? Character.digit(query.charAt(i), 16) : -1;
+    }
+}
@@ -0,0 +1,61 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * "/json" shows the JSON of a random image, "/random" the html page
+ * (www/index.html) which loads it
+ */
+class RandomImageHandler implements RouteHandler {
+
+    /**
+     * Used in the "/random" endpoint
+     */
+    private final static HashMap<String, String> _images = new HashMap<>() {
+        {
+            put("streets", "https://iili.io/JV1pSV.jpg");
+            put("bread", "https://iili.io/Jj9MWG.jpg");
+        }
+    };
+
+    private static final Path PAGE = Paths.get("www/index.html");
+
+    private final Random random = new Random();
+    private final boolean json;
+
+    /**
+     * @param json true to answer with the JSON, false for the html page
+     */
+    RandomImageHandler(boolean json) {
+        this.json = json;
+    }
+
+    @Override
+    public Response handle(Request request) throws IOException {
+        if (!json) {
+            // opens the random image page, streamed from disk
+            return Response.file(Response.HTML, PAGE, Files.size(PAGE));
+        }
+
+        // shows the JSON of a random image and sets the header name for that image
+
+        // pick a index from the map
+        int index = random.nextInt(_images.size());
+
+        // pull out the information
+        String header = (String) _images.keySet().toArray()[index];
+        String url = _images.get(header);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("{");
+        builder.append("\"header\":\"").append(header).append("\",");
+        builder.append("\"image\":\"").append(url).append("\"");
+        builder.append("}");
+        return Response.ok(Response.JSON, builder.toString());
+    }
+}
@@ -0,0 +1,111 @@
+package funHttpServer;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket per client: a client may send burst requests at once and then
+ * ratePerSecond requests per second. Used in front of the routes that call an
+ * upstream with a tight quota, so one client cannot use it up for everyone.
+ *
+ * A bucket is a single AtomicLong holding the time at which it is full again
+ * (the "theoretical arrival time" of the generic cell rate algorithm, which
+ * behaves exactly like a token bucket). Taking a token is one CAS on that
+ * long; there is no lock, neither per bucket nor for the map of buckets.
+ *
+ * A bucket whose full time lies more than idleMs in the past holds nothing a
+ * new bucket would not, so it is dropped by the next sweep. Sweeps run at
+ * most once per idleMs and only on one thread.
+ */
+class RateLimiter {
+
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final long idleNanos;
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final LongAdder limited = new LongAdder();
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burst         tokens a bucket holds when it is full
+     * @param idleMs        buckets that were full for this long are dropped
+     */
+    RateLimiter(double ratePerSecond, int burst, long idleMs) {
+        this.nanosPerToken = (long) (1e9 / ratePerSecond);
+        this.burstNanos = nanosPerToken * Math.max(1, burst);
+        this.idleNanos = idleMs * 1_000_000L;
+    }
+
+    /**
+     * Takes a token from the client's bucket
+     *
+     * @param client key of the bucket, e.g. the remote address
+     * @return 0 if the request may go ahead, otherwise nanoseconds until the next token
+     */
+    long acquire(String client) {
+        long now = System.nanoTime();
+        sweepIfDue(now);
+        AtomicLong bucket = buckets.computeIfAbsent(client, c -> new AtomicLong(now));
+        while (true) {
+            long fullAt = bucket.get();
+            long next = Math.max(fullAt, now) + nanosPerToken;
+            if (next - now > burstNanos) {
+                limited.increment();
+                return next - now - burstNanos;
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private void sweepIfDue(long now) {
+        long last = lastSweep.get();
+        if (now - last < idleNanos || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Iterator<Map.Entry<String, AtomicLong>> it = buckets.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, AtomicLong> entry = it.next();
+                if (now - entry.getValue().get() > idleNanos) {
+                    // a client taking a token right now at worst gets this one for free
+                    buckets.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * @param waitNanos as returned by acquire
+     * @return the wait in whole seconds for Retry-After, at least 1
+     */
+    static int retryAfterSeconds(long waitNanos) {
+        return (int) Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+    }
+
+    /**
+     * @return number of clients with a bucket
+     */
+    int clients() {
+        return buckets.size();
+    }
+
+    /**
+     * @return requests refused so far
+     */
+    long limited() {
+        return limited.sum();
+    }
+}
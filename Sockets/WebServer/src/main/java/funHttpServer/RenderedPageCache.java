@@ -0,0 +1,67 @@
+package funHttpServer;
+
+import java.io.IOException;
+
+/**
+ * Keeps a rendered page as a ready-to-send Response (head and body already
+ * serialized, see Response.prebuild). A request for the page then costs no
+ * file I/O and no string building. The page is rendered again on the first
+ * request after the DirectoryWatcher reported a change in the directory.
+ */
+class RenderedPageCache {
+
+    /**
+     * Creates the page, e.g. by reading a template
+     */
+    interface Renderer {
+        Response render() throws IOException;
+    }
+
+    private final Renderer renderer;
+    private final boolean enabled;
+    private volatile Response page;
+    private volatile int generation;
+
+    /**
+     * @param renderer creates the page
+     * @param watcher  watches the files the page is made from, null to not cache at all
+     */
+    RenderedPageCache(Renderer renderer, DirectoryWatcher watcher) {
+        this.renderer = renderer;
+        // without a watcher we would never notice changes
+        this.enabled = watcher != null;
+        if (enabled) {
+            watcher.addListener(changed -> invalidate());
+        }
+    }
+
+    /**
+     * @return the cached page, rendered if needed
+     */
+    Response get() throws IOException {
+        Response current = page;
+        if (current != null) {
+            return current;
+        }
+        if (!enabled) {
+            return renderer.render();
+        }
+        synchronized (this) {
+            if (page == null) {
+                int before = generation;
+                Response rendered = renderer.render().prebuild();
+                // only keep it if no change came in while we rendered
+                if (before == generation) {
+                    page = rendered;
+                }
+                return rendered;
+            }
+            return page;
+        }
+    }
+
+    void invalidate() {
+        generation++;
+        page = null;
+    }
+}
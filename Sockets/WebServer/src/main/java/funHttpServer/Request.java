@@ -0,0 +1,82 @@
+package funHttpServer;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A parsed HTTP request as handed to a RouteHandler.
+ *
+ * The path has no leading "/" (our routes are written as "multiply", "file/"
+ * and so on) and the query is everything after the "?" or null if there is none.
+ * The client is the remote address of the connection, "-" if it is not known.
+ */
+final class Request {
+
+    final String method;
+    final String path;
+    final String query;
+    final String client;
+    private final Map<String, String> headers;
+    private QueryParams params;
+
+    /**
+     * @param method  e.g. GET
+     * @param target  request target from the request line, e.g. /multiply?num1=3&num2=4
+     * @param headers header fields, the map ignores the case of the names
+     */
+    Request(String method, String target, Map<String, String> headers) {
+        this.method = method;
+        if (target.startsWith("/")) {
+            target = target.substring(1);
+        }
+        int questionMark = target.indexOf('?');
+        if (questionMark < 0) {
+            this.path = target;
+            this.query = null;
+        } else {
+            this.path = target.substring(0, questionMark);
+            this.query = target.substring(questionMark + 1);
+        }
+        this.client = "-";
+        this.headers = headers;
+    }
+
+    /**
+     * @param method  e.g. GET
+     * @param path    path without the leading "/"
+     * @param query   query without "?" or null
+     * @param headers header fields, the map ignores the case of the names
+     * @param client  remote address of the client
+     */
+    Request(String method, String path, String query, Map<String, String> headers, String client) {
+        this.method = method;
+        this.path = path;
+        this.query = query;
+        this.headers = headers;
+        this.client = client;
+    }
+
+    static Request get(String target) {
+        return new Request("GET", target, new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+    }
+
+    /**
+     * @param name header name, any case
+     * @return the header value or null
+     */
+    String header(String name) {
+        return headers.get(name);
+    }
+
+    /**
+     * @return the query parameters, empty if there is no query
+     */
+    QueryParams queryParams() {
+        if (params == null) {
+            params = query == null || query.isEmpty()
+                    ? QueryParams.EMPTY
+                    : new QueryParams(query, ServerConfig.MAX_QUERY_PARAMS);
+        }
+        return params;
+    }
+}
@@ -0,0 +1,397 @@
+package funHttpServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incremental HTTP request parser that works on the bytes of a ByteBuffer,
+ * so no Reader, no line Strings and no per line garbage are needed.
+ *
+ * parse() may be called again and again while more bytes arrive: it
+ * continues where it stopped and never scans a byte twice. Once the header
+ * is complete it has the method, path, query and the header fields the
+ * server uses (KEPT_HEADERS), every other field is skipped without creating
+ * a String. The header may not be larger than maxHeaderSize bytes or have
+ * more than maxHeaderCount fields.
+ *
+ * One parser is used for all requests on a connection, reset() prepares it
+ * for the next one.
+ */
+final class RequestParser {
+
+    /**
+     * Result of parse()
+     */
+    enum State {
+        /**
+         * more bytes are needed
+         */
+        INCOMPLETE,
+        /**
+         * the header is complete, see request() and headerLength()
+         */
+        DONE,
+        /**
+         * the request is broken or too large, see errorStatus()
+         */
+        ERROR
+    }
+
+    /**
+     * Header fields that are handed to the handlers, all other fields are skipped
+     */
+    static final String[] KEPT_HEADERS = {
+            "Host", "Connection", "Content-Length", "Transfer-Encoding", "Accept-Encoding",
+            "If-None-Match", "If-Modified-Since", "Range", "If-Range",
+            "User-Agent", "Referer", "X-Forwarded-For",
+    };
+
+    private static final byte[][] KEPT_NAMES = new byte[KEPT_HEADERS.length][];
+
+    /**
+     * Indexes of the fields in KEPT_HEADERS that describe the body
+     */
+    private static final int CONTENT_LENGTH = Arrays.asList(KEPT_HEADERS).indexOf("Content-Length");
+    private static final int TRANSFER_ENCODING = Arrays.asList(KEPT_HEADERS).indexOf("Transfer-Encoding");
+
+    static {
+        for (int i = 0; i < KEPT_HEADERS.length; i++) {
+            KEPT_NAMES[i] = KEPT_HEADERS[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final int maxHeaderSize;
+    private final int maxHeaderCount;
+
+    private int position;
+    private int lineStart;
+    private int headerCount;
+    private boolean requestLineDone;
+    private State state = State.INCOMPLETE;
+    private String errorStatus;
+
+    private String method;
+    private String path;
+    private String query;
+    private boolean http11;
+    private Map<String, String> headers;
+    private long contentLength;
+    private boolean chunked;
+    private boolean keepAlive;
+
+    /**
+     * @param maxHeaderSize  most bytes of request line and header fields
+     * @param maxHeaderCount most header fields
+     */
+    RequestParser(int maxHeaderSize, int maxHeaderCount) {
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderCount = maxHeaderCount;
+        reset();
+    }
+
+    /**
+     * Forgets the last request, the next one starts at index 0 of the buffer
+     */
+    void reset() {
+        position = 0;
+        lineStart = 0;
+        headerCount = 0;
+        requestLineDone = false;
+        state = State.INCOMPLETE;
+        errorStatus = null;
+        method = null;
+        path = null;
+        query = null;
+        http11 = false;
+        headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        contentLength = 0;
+        chunked = false;
+        keepAlive = false;
+    }
+
+    /**
+     * Parses the bytes that were added since the last call
+     *
+     * @param buffer in write mode, the request starts at index 0 and ends at position()
+     * @return the state after these bytes
+     */
+    State parse(ByteBuffer buffer) {
+        if (state != State.INCOMPLETE) {
+            return state;
+        }
+        byte[] data = buffer.array();
+        int limit = buffer.position();
+        while (position < limit) {
+            if (data[position++] != '\n') {
+                continue;
+            }
+            if (position > maxHeaderSize) {
+                break;
+            }
+            int lineEnd = position - 1;
+            if (lineEnd > lineStart && data[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (!requestLineDone) {
+                if (lineEnd == lineStart) {
+                    // empty lines before the request line are allowed (RFC 7230 section 3.5)
+                    lineStart = position;
+                    continue;
+                }
+                if (!requestLine(data, lineStart, lineEnd)) {
+                    return error("400 Bad Request");
+                }
+                requestLineDone = true;
+            } else if (lineEnd == lineStart) {
+                // the empty line ends the header
+                state = State.DONE;
+                keepAlive = keepAlive(headers.get("Connection"));
+                return state;
+            } else if (++headerCount > maxHeaderCount) {
+                return error("431 Request Header Fields Too Large");
+            } else if (!headerField(data, lineStart, lineEnd)) {
+                return error("400 Bad Request");
+            }
+            lineStart = position;
+        }
+        if (position > maxHeaderSize) {
+            return error(requestLineDone ? "431 Request Header Fields Too Large" : "414 URI Too Long");
+        }
+        return state;
+    }
+
+    /**
+     * The client closed its side before the empty line. Like the old readLine
+     * loop we still answer if at least the request line arrived.
+     *
+     * @param buffer in write mode
+     * @return DONE if there is a request line, otherwise ERROR
+     */
+    State endOfInput(ByteBuffer buffer) {
+        if (state != State.INCOMPLETE) {
+            return state;
+        }
+        byte[] data = buffer.array();
+        if (!requestLineDone && buffer.position() > lineStart) {
+            int lineEnd = buffer.position();
+            if (data[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (!requestLine(data, lineStart, lineEnd)) {
+                return error("400 Bad Request");
+            }
+            requestLineDone = true;
+        }
+        if (!requestLineDone) {
+            return error("400 Bad Request");
+        }
+        position = buffer.position();
+        keepAlive = false;
+        state = State.DONE;
+        return state;
+    }
+
+    /**
+     * @param client remote address of the connection
+     * @return the request once parse() returned DONE
+     */
+    Request request(String client) {
+        return new Request(method, path, query, headers, client);
+    }
+
+    /**
+     * @return bytes of the request line and header including the empty line
+     */
+    int headerLength() {
+        return position;
+    }
+
+    /**
+     * @return body size announced by the client, -1 if it is chunked
+     */
+    long contentLength() {
+        return chunked ? -1 : contentLength;
+    }
+
+    /**
+     * @return true if the request line says HTTP/1.1
+     */
+    boolean http11() {
+        return http11;
+    }
+
+    /**
+     * @return whether the connection stays open after this request
+     */
+    boolean keepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @return status code and reason phrase after parse() returned ERROR
+     */
+    String errorStatus() {
+        return errorStatus;
+    }
+
+    private State error(String status) {
+        errorStatus = status;
+        state = State.ERROR;
+        return state;
+    }
+
+    /**
+     * Splits "GET /path?query HTTP/1.1" without creating the line as a String
+     */
+    private boolean requestLine(byte[] data, int start, int end) {
+        int firstSpace = indexOf(data, start, end, (byte) ' ');
+        if (firstSpace <= start) {
+            return false;
+        }
+        int targetEnd = indexOf(data, firstSpace + 1, end, (byte) ' ');
+        if (targetEnd < 0) {
+            // "GET /" without version, the readLine loop accepted that as well
+            targetEnd = end;
+        } else {
+            http11 = matches(data, targetEnd + 1, end, "HTTP/1.1");
+        }
+        method = matches(data, start, firstSpace, "GET") ? "GET"
+                : new String(data, start, firstSpace - start, StandardCharsets.US_ASCII);
+
+        int targetStart = firstSpace + 1;
+        if (targetStart < targetEnd && data[targetStart] == '/') {
+            // our routes have no leading "/"
+            targetStart++;
+        }
+        int questionMark = indexOf(data, targetStart, targetEnd, (byte) '?');
+        if (questionMark < 0) {
+            path = string(data, targetStart, targetEnd);
+            query = null;
+        } else {
+            path = string(data, targetStart, questionMark);
+            query = string(data, questionMark + 1, targetEnd);
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the field if it is one of KEPT_HEADERS
+     *
+     * @return false if the field makes the request invalid: whitespace before
+     * the colon (RFC 7230 section 3.2.4), a Content-Length that is not a number
+     * or a second Content-Length (RFC 7230 section 3.3.2)
+     */
+    private boolean headerField(byte[] data, int start, int end) {
+        int colon = indexOf(data, start, end, (byte) ':');
+        if (colon <= start) {
+            return true;
+        }
+        if (data[colon - 1] == ' ' || data[colon - 1] == '\t') {
+            // "Content-Length : 5" may be read differently by a proxy in front of us
+            return false;
+        }
+        for (int i = 0; i < KEPT_NAMES.length; i++) {
+            if (equalsIgnoreCase(data, start, colon, KEPT_NAMES[i])) {
+                int valueStart = colon + 1;
+                int valueEnd = end;
+                while (valueStart < valueEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+                    valueStart++;
+                }
+                while (valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) {
+                    valueEnd--;
+                }
+                if (i == CONTENT_LENGTH) {
+                    // a repeated length may be a request smuggled past a proxy that read the other one
+                    if (headers.containsKey(KEPT_HEADERS[i])) {
+                        return false;
+                    }
+                    contentLength = contentLength(data, valueStart, valueEnd);
+                    if (contentLength < 0) {
+                        return false;
+                    }
+                } else if (i == TRANSFER_ENCODING && !matches(data, valueStart, valueEnd, "identity")) {
+                    chunked = true;
+                }
+                headers.put(KEPT_HEADERS[i], new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1));
+                return true;
+            }
+        }
+        return true;
+    }
+
+    private boolean keepAlive(String connection) {
+        if (connection == null) {
+            // HTTP/1.1 keeps connections open by default, HTTP/1.0 only when asked to
+            return http11;
+        }
+        if (connection.equalsIgnoreCase("close")) {
+            return false;
+        }
+        return http11 || connection.equalsIgnoreCase("keep-alive");
+    }
+
+    /**
+     * @return the number, -1 if it is not a number
+     */
+    private static long contentLength(byte[] data, int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static String string(byte[] data, int start, int end) {
+        return start == end ? "" : new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] data, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] data, int start, int end, String text) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (data[start + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] data, int start, int end, byte[] name) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            byte expected = name[i];
+            byte actual = data[start + i];
+            if (actual == expected) {
+                continue;
+            }
+            // ASCII letters differ in bit 0x20 only, other bytes (e.g. '-' and '\r') must match exactly
+            boolean letter = (expected | 0x20) >= 'a' && (expected | 0x20) <= 'z';
+            if (!letter || (actual | 0x20) != (expected | 0x20)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,337 @@
+package funHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A response created by a RouteHandler: status, content type, extra header
+ * fields and the body. The body is a list of BodyParts so files can be sent
+ * without loading them (see BodyPart). The connection writes head() and then
+ * the parts; toBytes() puts everything in one array for createResponse.
+ * A streamed response has no parts but a ChunkedBody that is filled while
+ * it is sent.
+ */
+final class Response {
+
+    static final String HTML = "text/html; charset=utf-8";
+    static final String TEXT = "text/plain; charset=utf-8";
+    static final String JSON = "application/json; charset=utf-8";
+
+    final int status;
+    final String reason;
+    final String contentType;
+    final List<BodyPart> body;
+    /**
+     * null unless the body is streamed, see chunked()
+     */
+    final ChunkedBody stream;
+    private final List<String> headers = new ArrayList<>();
+    private byte[] keepAliveBytes;
+    private byte[] closeBytes;
+    private volatile Map<String, Response> variants;
+
+    Response(int status, String reason, String contentType, List<BodyPart> body) {
+        this(status, reason, contentType, body, null);
+    }
+
+    private Response(int status, String reason, String contentType, List<BodyPart> body, ChunkedBody stream) {
+        this.status = status;
+        this.reason = reason;
+        this.contentType = contentType;
+        this.body = body;
+        this.stream = stream;
+    }
+
+    Response(int status, String reason, String contentType, byte[] body) {
+        this(status, reason, contentType, List.of(BodyPart.of(body)));
+    }
+
+    Response(int status, String reason, String contentType, String body) {
+        this(status, reason, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static Response ok(String contentType, String body) {
+        return new Response(200, "OK", contentType, body);
+    }
+
+    static Response ok(String contentType, byte[] body) {
+        return new Response(200, "OK", contentType, body);
+    }
+
+    /**
+     * @param contentType type of the file
+     * @param file        file to send, streamed from disk
+     * @param size        size of the file in bytes
+     * @return a 200 response with the whole file
+     */
+    static Response file(String contentType, Path file, long size) {
+        return new Response(200, "OK", contentType, List.of(BodyPart.of(file, 0, size)));
+    }
+
+    /**
+     * @param contentType type of the body
+     * @param stream      filled by another thread while the response is sent
+     * @return a 200 response whose body is sent as it is produced
+     */
+    static Response chunked(String contentType, ChunkedBody stream) {
+        return new Response(200, "OK", contentType, List.of(), stream);
+    }
+
+    static Response badRequest(String contentType, String body) {
+        return new Response(400, "Bad Request", contentType, body);
+    }
+
+    static Response notFound(String contentType, String body) {
+        return new Response(404, "Not Found", contentType, body);
+    }
+
+    static Response serverError(String body) {
+        return new Response(500, "Internal Server Error", TEXT, body);
+    }
+
+    /**
+     * @param retryAfterSeconds when the client has a token again
+     * @return a 429 telling the client it sent too many requests
+     */
+    static Response tooManyRequests(int retryAfterSeconds) {
+        return new Response(429, "Too Many Requests", TEXT, "Too many requests, please slow down.")
+                .header("Retry-After", String.valueOf(retryAfterSeconds));
+    }
+
+    /**
+     * @param retryAfterSeconds when the client should try again
+     * @return a 503 telling the client the server is too busy right now
+     */
+    static Response serviceUnavailable(int retryAfterSeconds) {
+        return new Response(503, "Service Unavailable", TEXT, "The server is busy, please try again later.")
+                .header("Retry-After", String.valueOf(retryAfterSeconds));
+    }
+
+    /**
+     * @return a 304 without body, the client uses its cached copy
+     */
+    static Response notModified() {
+        return new Response(304, "Not Modified", null, List.of());
+    }
+
+    /**
+     * Adds a header field. Content-Type, Content-Length and Connection are set by head().
+     *
+     * @param name  field name
+     * @param value field value
+     * @return this response for chaining
+     */
+    Response header(String name, String value) {
+        headers.add(name + ": " + value);
+        return this;
+    }
+
+    /**
+     * Replaces a header field added before, or adds it
+     *
+     * @param name  field name
+     * @param value field value
+     * @return this response for chaining
+     */
+    Response setHeader(String name, String value) {
+        headers.removeIf(header -> isField(header, name));
+        return header(name, value);
+    }
+
+    /**
+     * @param name field name, any case
+     * @return true if the field was added with header()
+     */
+    boolean hasHeader(String name) {
+        return headerValue(name) != null;
+    }
+
+    /**
+     * @param name field name, any case
+     * @return value of the field added with header() or null
+     */
+    String headerValue(String name) {
+        for (String header : headers) {
+            if (isField(header, name)) {
+                return header.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isField(String header, String name) {
+        return header.length() > name.length() && header.charAt(name.length()) == ':'
+                && header.regionMatches(true, 0, name, 0, name.length());
+    }
+
+    /**
+     * @param body new body
+     * @return a copy of this response (status, type, header fields) with another body
+     */
+    Response withBody(byte[] body) {
+        Response copy = new Response(status, reason, contentType, body);
+        copy.headers.addAll(headers);
+        return copy;
+    }
+
+    /**
+     * @return true if the body lives in a file and is streamed
+     */
+    boolean isFile() {
+        return body.size() == 1 && body.get(0).isFile();
+    }
+
+    /**
+     * Returns a variant of a cached (prebuilt) response, e.g. the gzip version,
+     * creating it only the first time it is asked for
+     *
+     * @param key    name of the variant
+     * @param create makes the variant from this response
+     * @return the variant
+     */
+    Response variant(String key, Function<Response, Response> create) {
+        Map<String, Response> map = variants;
+        if (map == null) {
+            synchronized (this) {
+                if (variants == null) {
+                    variants = new ConcurrentHashMap<>();
+                }
+                map = variants;
+            }
+        }
+        return map.computeIfAbsent(key, k -> create.apply(this));
+    }
+
+    boolean isPrebuilt() {
+        return closeBytes != null;
+    }
+
+    /**
+     * @return size of the body, -1 if it is streamed
+     */
+    long contentLength() {
+        if (stream != null) {
+            return -1;
+        }
+        long length = 0;
+        for (BodyPart part : body) {
+            length += part.length();
+        }
+        return length;
+    }
+
+    /**
+     * @param keepAlive true if the connection stays open after this response
+     * @return status line and header fields including the blank line
+     */
+    byte[] head(boolean keepAlive) {
+        return head(keepAlive, true);
+    }
+
+    /**
+     * @param keepAlive true if the connection stays open after this response
+     * @param chunked   false if the client cannot take a chunked stream (HTTP/1.0),
+     *                  the end of a streamed body is then the end of the connection
+     * @return status line and header fields including the blank line
+     */
+    byte[] head(boolean keepAlive, boolean chunked) {
+        StringBuilder builder = new StringBuilder(128);
+        builder.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        if (contentType != null) {
+            builder.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (stream != null) {
+            if (chunked) {
+                builder.append("Transfer-Encoding: chunked\r\n");
+            }
+        } else if (status != 304) {
+            // a 304 has no body, a Content-Length would describe the 200 it stands for
+            builder.append("Content-Length: ").append(contentLength()).append("\r\n");
+        }
+        for (String header : headers) {
+            builder.append(header).append("\r\n");
+        }
+        builder.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        builder.append("\r\n");
+        return builder.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Serializes the response once for both kinds of connections, so it can be
+     * cached and sent many times without building it again. Only for byte bodies;
+     * the response must not be changed afterwards.
+     *
+     * @return this response
+     */
+    Response prebuild() {
+        closeBytes = toBytes();
+        keepAliveBytes = serialize(true);
+        return this;
+    }
+
+    /**
+     * @param keepAlive true if the connection stays open after this response
+     * @return the complete serialized response if prebuild() was called, otherwise null
+     */
+    byte[] prebuilt(boolean keepAlive) {
+        return keepAlive ? keepAliveBytes : closeBytes;
+    }
+
+    /**
+     * @return the complete response as sent on a connection that is closed afterwards
+     */
+    byte[] toBytes() {
+        if (closeBytes != null) {
+            return closeBytes;
+        }
+        return serialize(false);
+    }
+
+    /**
+     * @return the body in one array, files are read
+     */
+    byte[] toBodyBytes() {
+        if (body.size() == 1 && !body.get(0).isFile()) {
+            return body.get(0).bytes();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(contentLength(), 1 << 20));
+        try {
+            for (BodyPart part : body) {
+                part.writeTo(out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] serialize(boolean keepAlive) {
+        byte[] head = head(keepAlive);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(head.length + (int) Math.min(contentLength(), 1 << 20));
+        out.write(head, 0, head.length);
+        try {
+            for (BodyPart part : body) {
+                part.writeTo(out);
+            }
+            if (stream != null) {
+                for (byte[] piece = stream.take(); piece != null; piece = stream.take()) {
+                    out.write(ChunkedBody.frame(piece.length));
+                    out.write(piece);
+                    out.write(ChunkedBody.CRLF);
+                }
+                out.write(ChunkedBody.LAST_CHUNK);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
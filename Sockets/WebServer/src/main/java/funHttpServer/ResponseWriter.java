@@ -0,0 +1,212 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes one Response to a non-blocking channel, possibly over several calls
+ * when the socket buffer is full.
+ *
+ * The head and byte parts are written with one gathering write. File parts
+ * are sent with FileChannel.transferTo, which lets the kernel copy the file
+ * straight into the socket (sendfile) without passing it through the heap.
+ * A streamed body is written as chunks while it is produced; the pieces that
+ * are ready at that moment go out together in one chunk.
+ */
+class ResponseWriter {
+
+    /**
+     * Largest chunk of a streamed body
+     */
+    private static final int MAX_CHUNK = 64 * 1024;
+
+    /**
+     * Segments to write: ByteBuffers for memory, BodyParts for file regions and a ChunkedBody
+     */
+    private final List<Object> segments = new ArrayList<>();
+    private int index = 0;
+    private FileChannel file;
+    private long fileSent;
+    private long written;
+    private final boolean chunked;
+    private ByteBuffer[] chunk;
+    private boolean waitingForBody;
+
+    /**
+     * @param response  to write
+     * @param keepAlive true if the connection stays open afterwards
+     */
+    ResponseWriter(Response response, boolean keepAlive) {
+        this(response, keepAlive, true);
+    }
+
+    /**
+     * @param response  to write
+     * @param keepAlive true if the connection stays open afterwards
+     * @param chunked   false to send a streamed body without chunk framing (HTTP/1.0 client,
+     *                  keepAlive must be false then)
+     */
+    ResponseWriter(Response response, boolean keepAlive, boolean chunked) {
+        this.chunked = chunked;
+        byte[] prebuilt = response.prebuilt(keepAlive);
+        if (prebuilt != null) {
+            // cached page, head and body are ready to go
+            segments.add(ByteBuffer.wrap(prebuilt));
+            return;
+        }
+        segments.add(ByteBuffer.wrap(response.head(keepAlive, chunked)));
+        for (BodyPart part : response.body) {
+            if (part.isFile()) {
+                segments.add(part);
+            } else if (part.length() > 0) {
+                segments.add(ByteBuffer.wrap(part.bytes()));
+            }
+        }
+        if (response.stream != null) {
+            segments.add(response.stream);
+        }
+    }
+
+    /**
+     * Writes as much as the channel accepts
+     *
+     * @param channel non-blocking socket
+     * @return true when the whole response has been written
+     */
+    boolean write(SocketChannel channel) throws IOException {
+        waitingForBody = false;
+        while (index < segments.size()) {
+            Object segment = segments.get(index);
+            if (segment instanceof ByteBuffer) {
+                // gather all memory segments up to the next file
+                int end = index;
+                while (end < segments.size() && segments.get(end) instanceof ByteBuffer) {
+                    end++;
+                }
+                ByteBuffer[] buffers = segments.subList(index, end).toArray(new ByteBuffer[0]);
+                written += channel.write(buffers);
+                if (buffers[buffers.length - 1].hasRemaining()) {
+                    return false;
+                }
+                index = end;
+            } else if (segment instanceof ChunkedBody) {
+                if (!writeStream((ChunkedBody) segment, channel)) {
+                    return false;
+                }
+                index++;
+            } else {
+                BodyPart part = (BodyPart) segment;
+                if (file == null) {
+                    file = FileChannel.open(part.file(), StandardOpenOption.READ);
+                    fileSent = 0;
+                }
+                long n = file.transferTo(part.position + fileSent, part.count - fileSent, channel);
+                fileSent += n;
+                written += n;
+                if (fileSent < part.count) {
+                    if (n == 0 && part.position + fileSent >= file.size()) {
+                        throw new IOException("File " + part.file() + " changed while it was sent");
+                    }
+                    return false;
+                }
+                EventLoop.closeQuietly(file);
+                file = null;
+                index++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the whole streamed body has been written
+     */
+    private boolean writeStream(ChunkedBody stream, SocketChannel channel) throws IOException {
+        while (true) {
+            if (chunk != null) {
+                written += channel.write(chunk);
+                if (chunk[chunk.length - 1].hasRemaining()) {
+                    return false;
+                }
+                chunk = null;
+                if (stream.isDone()) {
+                    return true;
+                }
+            }
+            chunk = nextChunk(stream);
+            if (chunk == null) {
+                waitingForBody = true;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the pieces that are ready framed as one chunk (plus the last chunk
+     * if the body ended), null if nothing is ready
+     */
+    private ByteBuffer[] nextChunk(ChunkedBody stream) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        int size = 0;
+        byte[] piece;
+        while (size < MAX_CHUNK && (piece = stream.next()) != null) {
+            buffers.add(ByteBuffer.wrap(piece));
+            size += piece.length;
+        }
+        if (size == 0 && !stream.isDone()) {
+            return null;
+        }
+        if (size > 0 && chunked) {
+            buffers.add(0, ByteBuffer.wrap(ChunkedBody.frame(size)));
+            buffers.add(ByteBuffer.wrap(ChunkedBody.CRLF));
+        }
+        if (stream.isDone()) {
+            buffers.add(ByteBuffer.wrap(chunked ? ChunkedBody.LAST_CHUNK : new byte[0]));
+        }
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    /**
+     * @return true if the last write() stopped because the streamed body has nothing ready
+     */
+    boolean waitingForBody() {
+        return waitingForBody;
+    }
+
+    /**
+     * @param listener called once the streamed body has more to write
+     */
+    void onBodyAvailable(Runnable listener) {
+        for (Object segment : segments) {
+            if (segment instanceof ChunkedBody) {
+                ((ChunkedBody) segment).onAvailable(listener);
+            }
+        }
+    }
+
+    /**
+     * @return bytes written so far including the head
+     */
+    long written() {
+        return written;
+    }
+
+    /**
+     * Releases the open file, if any, and stops a streamed body. Called when the connection is closed early.
+     */
+    void close() {
+        if (file != null) {
+            EventLoop.closeQuietly(file);
+            file = null;
+        }
+        for (Object segment : segments) {
+            if (segment instanceof ChunkedBody) {
+                ((ChunkedBody) segment).cancel();
+            }
+        }
+    }
+}
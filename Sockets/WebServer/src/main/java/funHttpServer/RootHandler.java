@@ -0,0 +1,45 @@
+package funHttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * "/" shows the default directory page: www/root.html with the list of files
+ * in www/ filled in for ${links}.
+ *
+ * The rendered page is kept ready to send and only built again after a file
+ * in www/ changed, see RenderedPageCache. The ETag is the hash of the page,
+ * so it only changes when the content does.
+ */
+class RootHandler implements RouteHandler {
+
+    private final RenderedPageCache page;
+
+    /**
+     * @param www watches www/ to notice new files or a changed root.html, null to render every time
+     */
+    RootHandler(DirectoryWatcher www) {
+        this.page = new RenderedPageCache(RootHandler::render, www);
+    }
+
+    @Override
+    public Response handle(Request request) throws IOException {
+        return page.get();
+    }
+
+    private static Response render() throws IOException {
+        // opens the root.html file
+        File template = new File("www/root.html");
+        String page = new String(WebServer.readFileInBytes(template), StandardCharsets.UTF_8);
+        // performs a template replacement in the page
+        page = page.replace("${links}", WebServer.buildFileList());
+
+        // the page changes with the template or with the list of files in www/
+        long lastModified = Math.max(template.lastModified(), new File("www").lastModified());
+        byte[] body = page.getBytes(StandardCharsets.UTF_8);
+        return Response.ok(Response.HTML, body)
+                .header("ETag", ConditionalGet.etag(body))
+                .header("Last-Modified", ConditionalGet.httpDate(lastModified));
+    }
+}
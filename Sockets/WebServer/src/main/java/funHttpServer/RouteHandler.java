@@ -0,0 +1,33 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handles the requests for one route registered with the Router.
+ * Implementations run on worker threads and may be called concurrently.
+ */
+interface RouteHandler {
+
+    /**
+     * @param request the parsed request
+     * @return the response to send
+     * @throws IOException if reading a file or calling an upstream fails, answered with a 500
+     */
+    Response handle(Request request) throws IOException;
+
+    /**
+     * Called by the server. Handlers that wait on something (an upstream call)
+     * override this so the worker thread is free while they wait, see AsyncRouteHandler.
+     *
+     * @param request the parsed request
+     * @return completes with the response to send
+     */
+    default CompletableFuture<Response> handleAsync(Request request) {
+        try {
+            return CompletableFuture.completedFuture(handle(request));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
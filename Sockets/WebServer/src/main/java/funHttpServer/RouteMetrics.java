@@ -0,0 +1,64 @@
+package funHttpServer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one route for /metrics: requests per status code, requests in
+ * flight, body bytes sent and the latency from calling the handler to the
+ * finished response. Everything is a LongAdder, recording never locks.
+ */
+final class RouteMetrics {
+
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder bodyBytes = new LongAdder();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * @return start time to pass to finish()
+     */
+    long start() {
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * @param start    returned by start()
+     * @param response the response that will be sent, null if there is none
+     */
+    void finish(long start, Response response) {
+        inFlight.decrement();
+        latency.record(System.nanoTime() - start);
+        int status = response == null ? 500 : response.status;
+        LongAdder counter = statuses.get(status);
+        if (counter == null) {
+            counter = statuses.computeIfAbsent(status, s -> new LongAdder());
+        }
+        counter.increment();
+        if (response != null && response.stream == null) {
+            // a streamed body is not sent yet, it only shows up in the bytes written
+            bodyBytes.add(response.contentLength());
+        }
+    }
+
+    long inFlight() {
+        return inFlight.sum();
+    }
+
+    long bodyBytes() {
+        return bodyBytes.sum();
+    }
+
+    /**
+     * @return request count per status code
+     */
+    Map<Integer, LongAdder> statuses() {
+        return statuses;
+    }
+
+    LatencyHistogram latency() {
+        return latency;
+    }
+}
@@ -0,0 +1,150 @@
+package funHttpServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps request paths to RouteHandlers.
+ *
+ * Exact routes ("multiply", "json") live in a hash map, so the lookup cost
+ * does not depend on the number of routes. Prefix routes ("file/") live in a
+ * character trie; a lookup walks the path once and returns the handler of the
+ * longest registered prefix. Both are O(path length).
+ *
+ * Exact routes are matched ignoring case, like the old equalsIgnoreCase checks.
+ * Routes are registered at startup, lookups afterwards only read.
+ */
+class Router {
+
+    /**
+     * A registered route: its name for /metrics, the handler and its counters
+     */
+    static final class Route {
+        final String name;
+        final RouteHandler handler;
+        final RouteMetrics metrics = new RouteMetrics();
+        /**
+         * null if the route has no own concurrency limit
+         */
+        ConcurrencyLimiter limiter;
+        /**
+         * null if the route is not rate limited per client
+         */
+        RateLimiter rateLimiter;
+
+        Route(String name, RouteHandler handler) {
+            this.name = name;
+            this.handler = handler;
+        }
+    }
+
+    private static class Node {
+        final Map<Character, Node> children = new HashMap<>();
+        Route route;
+    }
+
+    private final Map<String, Route> exact = new HashMap<>();
+    private final Node prefixes = new Node();
+    private final List<Route> all = new ArrayList<>();
+    private Route fallback;
+
+    /**
+     * @param path    path without leading "/", e.g. "multiply"
+     * @param handler handles requests for exactly this path
+     * @return this router for chaining
+     */
+    Router add(String path, RouteHandler handler) {
+        exact.put(path.toLowerCase(Locale.ROOT), register(new Route("/" + path, handler)));
+        return this;
+    }
+
+    /**
+     * @param prefix  path prefix without leading "/", e.g. "file/"
+     * @param handler handles requests for every path starting with the prefix
+     * @return this router for chaining
+     */
+    Router addPrefix(String prefix, RouteHandler handler) {
+        Node node = prefixes;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+        }
+        node.route = register(new Route("/" + prefix, handler));
+        return this;
+    }
+
+    /**
+     * @param handler used when no route matches
+     * @return this router for chaining
+     */
+    Router otherwise(RouteHandler handler) {
+        this.fallback = register(new Route("other", handler));
+        return this;
+    }
+
+    /**
+     * @param path    path of a route added with add() or addPrefix()
+     * @param limiter concurrency limit of that route
+     * @return this router for chaining
+     */
+    Router limit(String path, ConcurrencyLimiter limiter) {
+        find(path).limiter = limiter;
+        return this;
+    }
+
+    /**
+     * @param path        path of a route added with add() or addPrefix()
+     * @param rateLimiter request rate per client of that route
+     * @return this router for chaining
+     */
+    Router rateLimit(String path, RateLimiter rateLimiter) {
+        find(path).rateLimiter = rateLimiter;
+        return this;
+    }
+
+    private Route find(String path) {
+        for (Route route : all) {
+            if (route.name.equalsIgnoreCase("/" + path)) {
+                return route;
+            }
+        }
+        throw new IllegalArgumentException("No route " + path);
+    }
+
+    private Route register(Route route) {
+        all.add(route);
+        return route;
+    }
+
+    /**
+     * @return all registered routes
+     */
+    List<Route> routes() {
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * @param path request path without leading "/" and without query
+     * @return the route for the path, the fallback if nothing matches
+     */
+    Route route(String path) {
+        Route route = exact.get(path.toLowerCase(Locale.ROOT));
+        if (route != null) {
+            return route;
+        }
+
+        // longest prefix match
+        Node node = prefixes;
+        Route best = null;
+        for (int i = 0; i < path.length() && node != null; i++) {
+            node = node.children.get(path.charAt(i));
+            if (node != null && node.route != null) {
+                best = node.route;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+}
@@ -0,0 +1,255 @@
+package funHttpServer;
+
+/**
+ * Tuning knobs for the FunWebServer. Every value can be overridden with a
+ * system property, e.g. gradle FunWebServer -DfunHttpServer.eventLoops=2
+ */
+final class ServerConfig {
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of selector threads that own the accepted connections
+     */
+    static final int EVENT_LOOPS = Integer.getInteger("funHttpServer.eventLoops",
+            Math.max(1, Math.min(CORES, 4)));
+
+    /**
+     * Number of worker threads that run createResponse. Handlers may block on
+     * upstream calls so we keep more workers than cores.
+     */
+    static final int WORKERS = Integer.getInteger("funHttpServer.workers",
+            Math.max(8, CORES * 2));
+
+    /**
+     * Size of the per connection read buffer in bytes
+     */
+    static final int READ_BUFFER_SIZE = Integer.getInteger("funHttpServer.readBufferSize", 8 * 1024);
+
+    /**
+     * Largest request (header plus body) we accept in bytes
+     */
+    static final int MAX_REQUEST_SIZE = Integer.getInteger("funHttpServer.maxRequestSize", 1024 * 1024);
+
+    /**
+     * Requests handled at the same time, more have to wait in the queue
+     */
+    static final int MAX_IN_FLIGHT = Integer.getInteger("funHttpServer.maxInFlight", 256);
+
+    /**
+     * Requests that may wait for a free slot, more are answered with 503
+     */
+    static final int MAX_QUEUED = Integer.getInteger("funHttpServer.maxQueued", 512);
+
+    /**
+     * A request that waited longer than this is answered with 503 instead of being started late
+     */
+    static final long MAX_QUEUE_WAIT_MS = Long.getLong("funHttpServer.maxQueueWaitMs", 1_000);
+
+    /**
+     * Retry-After of a 503
+     */
+    static final int RETRY_AFTER_SECONDS = Integer.getInteger("funHttpServer.retryAfterSeconds", 1);
+
+    /**
+     * Concurrency limits of single routes as route=limit pairs, the same number may wait.
+     * Keeps the slow upstream routes from taking all slots from the static pages.
+     */
+    static final String ROUTE_LIMITS = System.getProperty("funHttpServer.routeLimits", "github=16,weather=64");
+
+    /**
+     * Request rate per client of single routes as route=requestsPerSecond:burst pairs.
+     * Protects the quota of the upstream APIs from a single client.
+     */
+    static final String RATE_LIMITS = System.getProperty("funHttpServer.rateLimits", "github=1:10,weather=2:20");
+
+    /**
+     * A client's rate limit bucket is dropped after it was full for this long
+     */
+    static final long RATE_LIMIT_IDLE_MS = Long.getLong("funHttpServer.rateLimitIdleMs", 60_000);
+
+    /**
+     * Threads that read GitHub answers and stream the /github page, one per response being sent
+     */
+    static final int GITHUB_STREAM_THREADS = Integer.getInteger("funHttpServer.githubStreamThreads", 32);
+
+    /**
+     * Largest request line plus header fields in bytes, larger requests get 431
+     */
+    static final int MAX_HEADER_SIZE = Integer.getInteger("funHttpServer.maxHeaderSize", 8 * 1024);
+
+    /**
+     * Most header fields in a request
+     */
+    static final int MAX_HEADER_COUNT = Integer.getInteger("funHttpServer.maxHeaderCount", 64);
+
+    /**
+     * Most query parameters looked at, the rest of a long query is ignored
+     */
+    static final int MAX_QUERY_PARAMS = Integer.getInteger("funHttpServer.maxQueryParams", 64);
+
+    /**
+     * A keep-alive connection without a request for this long is closed
+     */
+    static final long IDLE_TIMEOUT_MS = Long.getLong("funHttpServer.idleTimeoutMs", 15_000);
+
+    /**
+     * On shutdown, how long requests in progress may take before their connections are closed anyway
+     */
+    static final long SHUTDOWN_GRACE_MS = Long.getLong("funHttpServer.shutdownGraceMs", 10_000);
+
+    /**
+     * Time a client has for the whole request header, counted from its first byte
+     */
+    static final long HEADER_TIMEOUT_MS = Long.getLong("funHttpServer.headerTimeoutMs", 10_000);
+
+    /**
+     * Time a client has for the request body, counted from the end of the header
+     */
+    static final long BODY_TIMEOUT_MS = Long.getLong("funHttpServer.bodyTimeoutMs", 30_000);
+
+    /**
+     * A client that does not read any of its response for this long is dropped
+     */
+    static final long WRITE_TIMEOUT_MS = Long.getLong("funHttpServer.writeTimeoutMs", 30_000);
+
+    /**
+     * Resolution of the connection deadlines
+     */
+    static final long TIMER_TICK_MS = Long.getLong("funHttpServer.timerTickMs", 100);
+
+    /**
+     * Requests served on one connection before we ask the client to reconnect
+     */
+    static final int MAX_REQUESTS_PER_CONNECTION = Integer.getInteger("funHttpServer.maxRequestsPerConnection", 100);
+
+    /**
+     * Where the access log goes: stdout, off or a file name
+     */
+    static final String ACCESS_LOG = System.getProperty("funHttpServer.accessLog", "stdout");
+
+    /**
+     * Access log entries that can wait for the writer, more are sampled and then dropped
+     */
+    static final int ACCESS_LOG_BUFFER = Integer.getInteger("funHttpServer.accessLogBuffer", 8192);
+
+    /**
+     * One of this many successful requests is logged while the access log buffer is nearly full
+     */
+    static final int ACCESS_LOG_SAMPLE_RATE = Integer.getInteger("funHttpServer.accessLogSampleRate", 10);
+
+    /**
+     * How often the access log writer looks for new entries when it is idle
+     */
+    static final long ACCESS_LOG_FLUSH_MS = Long.getLong("funHttpServer.accessLogFlushMs", 50);
+
+    /**
+     * Most cities kept in the weather cache
+     */
+    static final int WEATHER_CACHE_SIZE = Integer.getInteger("funHttpServer.weatherCacheSize", 1000);
+
+    /**
+     * How long a weather response is fresh (10 minutes)
+     */
+    static final long WEATHER_TTL_MS = Long.getLong("funHttpServer.weatherTtlMs", 10 * 60 * 1000);
+
+    /**
+     * How long an expired weather response may still be served while it is refreshed
+     */
+    static final long WEATHER_STALE_MS = Long.getLong("funHttpServer.weatherStaleMs", 5 * 60 * 1000);
+
+    /**
+     * The real OpenWeather, without an API key it is not called and mock data is shown
+     */
+    static final String OPENWEATHER_URL = "http://api.openweathermap.org/";
+
+    /**
+     * Where "/github" sends its query, e.g. a local stand-in (UpstreamStub) for load tests
+     */
+    static final String GITHUB_BASE_URL = System.getProperty("funHttpServer.githubBaseUrl", "https://api.github.com/");
+
+    /**
+     * Where "/weather" gets its data, a stand-in is called even without an API key
+     */
+    static final String WEATHER_BASE_URL = System.getProperty("funHttpServer.weatherBaseUrl", OPENWEATHER_URL);
+
+    /**
+     * How long to wait for a connection to GitHub or OpenWeather
+     */
+    static final long UPSTREAM_CONNECT_TIMEOUT_MS = Long.getLong("funHttpServer.upstreamConnectTimeoutMs", 5_000);
+
+    /**
+     * How long to wait for the answer of GitHub or OpenWeather
+     */
+    static final long UPSTREAM_TIMEOUT_MS = Long.getLong("funHttpServer.upstreamTimeoutMs", 20_000);
+
+    /**
+     * Upstream calls the circuit breaker of a host looks at
+     */
+    static final int BREAKER_WINDOW = Integer.getInteger("funHttpServer.breakerWindow", 20);
+
+    /**
+     * Upstream calls needed before a circuit breaker may open
+     */
+    static final int BREAKER_MIN_CALLS = Integer.getInteger("funHttpServer.breakerMinCalls", 10);
+
+    /**
+     * Share of failed upstream calls that opens the circuit breaker
+     */
+    static final double BREAKER_FAILURE_RATE = Double.parseDouble(
+            System.getProperty("funHttpServer.breakerFailureRate", "0.5"));
+
+    /**
+     * An upstream call taking longer than this counts as slow
+     */
+    static final long BREAKER_SLOW_CALL_MS = Long.getLong("funHttpServer.breakerSlowCallMs", 3_000);
+
+    /**
+     * Share of slow upstream calls that opens the circuit breaker
+     */
+    static final double BREAKER_SLOW_CALL_RATE = Double.parseDouble(
+            System.getProperty("funHttpServer.breakerSlowCallRate", "0.5"));
+
+    /**
+     * How long an open circuit breaker fails calls before it lets probes through
+     */
+    static final long BREAKER_OPEN_MS = Long.getLong("funHttpServer.breakerOpenMs", 10_000);
+
+    /**
+     * Probe calls of a half open circuit breaker, all must succeed to close it
+     */
+    static final int BREAKER_PROBES = Integer.getInteger("funHttpServer.breakerProbes", 3);
+
+    /**
+     * Latency quantile after which an upstream call is sent a second time, 0 turns hedging off
+     */
+    static final double HEDGE_QUANTILE = Double.parseDouble(System.getProperty("funHttpServer.hedgeQuantile", "0.95"));
+
+    /**
+     * Hedged calls as percent of all upstream calls at most
+     */
+    static final int HEDGE_BUDGET_PERCENT = Integer.getInteger("funHttpServer.hedgeBudgetPercent", 10);
+
+    /**
+     * Smaller bodies are sent uncompressed, gzip would barely help
+     */
+    static final int COMPRESSION_MIN_SIZE = Integer.getInteger("funHttpServer.compressionMinSize", 1024);
+
+    /**
+     * Most bytes of compressed www/ files kept in memory
+     */
+    static final long COMPRESSED_CACHE_BYTES = Long.getLong("funHttpServer.compressedCacheBytes", 32L * 1024 * 1024);
+
+    /**
+     * Larger www/ files are sent uncompressed (and streamed)
+     */
+    static final long COMPRESSED_MAX_FILE_SIZE = Long.getLong("funHttpServer.compressedMaxFileSize", 4L * 1024 * 1024);
+
+    /**
+     * Directory "/file/name" sends the raw files of, requests cannot leave it
+     */
+    static final String FILES_DIR = System.getProperty("funHttpServer.filesDir", "www");
+
+    private ServerConfig() {
+    }
+}
@@ -0,0 +1,120 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Serves the files in www/, e.g. "/index.html" sends www/index.html.
+ *
+ * Files are not read by the handler: the response only points to the file
+ * and the connection streams it with FileChannel.transferTo, so even large
+ * assets never end up on the heap. Paths that leave www/ are refused.
+ * Responses carry an ETag and Last-Modified from the file attributes so
+ * clients can revalidate their copy, see ConditionalGet, and Range requests
+ * get only the parts asked for, see ByteRanges. Both are applied to the
+ * handler's response by WebServer, the conditional check first.
+ */
+class StaticFileHandler implements RouteHandler {
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", Response.HTML);
+        CONTENT_TYPES.put("htm", Response.HTML);
+        CONTENT_TYPES.put("txt", Response.TEXT);
+        CONTENT_TYPES.put("json", Response.JSON);
+        CONTENT_TYPES.put("css", "text/css; charset=utf-8");
+        CONTENT_TYPES.put("js", "text/javascript; charset=utf-8");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("pdf", "application/pdf");
+    }
+
+    private final Path root;
+    private final RouteHandler notFound;
+
+    /**
+     * @param root     directory to serve
+     * @param notFound answers requests for paths that are not a file in root
+     */
+    StaticFileHandler(Path root, RouteHandler notFound) {
+        this.root = root.toAbsolutePath().normalize();
+        this.notFound = notFound;
+    }
+
+    StaticFileHandler(String root, RouteHandler notFound) {
+        this(Paths.get(root), notFound);
+    }
+
+    @Override
+    public Response handle(Request request) throws IOException {
+        return serve(request, request.path);
+    }
+
+    /**
+     * @param request the request, for the not found handler
+     * @param path    path of the file relative to the root
+     * @return the whole file or the answer of the not found handler
+     */
+    Response serve(Request request, String path) throws IOException {
+        Path file = resolve(path);
+        BasicFileAttributes attributes = file == null ? null : attributes(file);
+        if (attributes == null || !attributes.isRegularFile()) {
+            return notFound.handle(request);
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        return Response.file(contentTypeFor(file), file, attributes.size())
+                .header("ETag", ConditionalGet.etag(attributes.size(), modified))
+                .header("Last-Modified", ConditionalGet.httpDate(modified));
+    }
+
+    /**
+     * @param file a file in the root
+     * @return the Content-Type to send it with
+     */
+    String contentTypeFor(Path file) {
+        return contentType(file);
+    }
+
+    private static BasicFileAttributes attributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // does not exist
+            return null;
+        }
+    }
+
+    /**
+     * @param path request path relative to the root
+     * @return the file inside the root or null if the path points outside of it
+     */
+    Path resolve(String path) {
+        if (path.isEmpty()) {
+            return null;
+        }
+        Path file = root.resolve(path).normalize();
+        return file.startsWith(root) ? file : null;
+    }
+
+    /**
+     * @param file any file
+     * @return the Content-Type for its extension
+     */
+    static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : "application/octet-stream";
+    }
+}
@@ -0,0 +1,103 @@
+package funHttpServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel: one shared structure for the deadlines of all
+ * connections of an event loop, instead of a timer per socket.
+ *
+ * Time is cut into ticks of tickMs; a deadline goes into the slot of its tick
+ * (modulo the number of slots, later laps wait in the same slot). schedule()
+ * and finding what expired are O(1) per entry, whatever the number of
+ * connections. Deadlines fire up to one tick late.
+ *
+ * Entries are never removed. The owner keeps the real deadline itself and
+ * checks it when an entry fires, so moving a deadline is just scheduling it
+ * again (or not at all if it moved later). Only used by the loop thread,
+ * nothing is synchronized.
+ *
+ * @param <T> what is scheduled, e.g. a Connection
+ */
+final class TimerWheel<T> {
+
+    private static final class Entry<T> {
+        final T item;
+        final long tick;
+
+        Entry(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+
+    private final long tickMs;
+    private final List<List<Entry<T>>> slots;
+    private long currentTick;
+
+    /**
+     * @param tickMs length of a tick
+     * @param slots  number of slots, deadlines further away than slots * tickMs take several laps
+     * @param now    current time in milliseconds
+     */
+    TimerWheel(long tickMs, int slots, long now) {
+        this.tickMs = tickMs;
+        this.slots = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            this.slots.add(new ArrayList<>());
+        }
+        this.currentTick = now / tickMs;
+    }
+
+    /**
+     * @param item     handed to the consumer of advance() once the deadline passed
+     * @param deadline time in milliseconds
+     */
+    void schedule(T item, long deadline) {
+        // round up so nothing fires early, and never into the slot that was already handled
+        long tick = Math.max((deadline + tickMs - 1) / tickMs, currentTick + 1);
+        slots.get((int) (tick % slots.size())).add(new Entry<>(item, tick));
+    }
+
+    /**
+     * Hands every item whose deadline passed to expired
+     *
+     * @param now     current time in milliseconds
+     * @param expired called for each item, may schedule again
+     */
+    void advance(long now, Consumer<T> expired) {
+        long nowTick = now / tickMs;
+        // after a long stall every slot is looked at once
+        long first = Math.max(currentTick + 1, nowTick - slots.size() + 1);
+        List<T> due = new ArrayList<>();
+        for (long tick = first; tick <= nowTick; tick++) {
+            List<Entry<T>> slot = slots.get((int) (tick % slots.size()));
+            if (slot.isEmpty()) {
+                continue;
+            }
+            int kept = 0;
+            for (int i = 0; i < slot.size(); i++) {
+                Entry<T> entry = slot.get(i);
+                if (entry.tick <= nowTick) {
+                    due.add(entry.item);
+                } else {
+                    slot.set(kept++, entry); // a later lap
+                }
+            }
+            slot.subList(kept, slot.size()).clear();
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        // called after the slots are done, so expired may schedule again
+        for (T item : due) {
+            expired.accept(item);
+        }
+    }
+
+    /**
+     * @return milliseconds of a tick
+     */
+    long tickMs() {
+        return tickMs;
+    }
+}
@@ -0,0 +1,299 @@
+package funHttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking client for the third party APIs (GitHub, OpenWeather).
+ *
+ * Replaces the old fetchURL which opened a new URLConnection per call, read the
+ * body one char at a time and blocked the calling thread for up to 20 seconds.
+ * One shared java.net.http.HttpClient keeps connections to an upstream open and
+ * reuses them, bodies are read in one go and the result is a CompletableFuture,
+ * so no server thread waits while the upstream answers.
+ *
+ * Latency and failures of the calls are counted per upstream host for /metrics.
+ * For streamed bodies (stream()) the latency is the time until the header arrived.
+ *
+ * Every host has a CircuitBreaker: while a host fails or is slow, calls to it
+ * fail right away with CircuitOpenException instead of waiting for the
+ * timeout. A call that has not answered after the host's hedge quantile of
+ * latency (p95 by default) is sent a second time and the first successful
+ * answer wins, which cuts the tail caused by a single slow connection. A call
+ * that fails before then is sent again right away. Hedged calls are limited
+ * to a share of all calls so a slow host does not get twice the load.
+ */
+class UpstreamClient {
+
+    /**
+     * Thrown (as the cause of a failed future) when the upstream answers with
+     * something other than 2xx
+     */
+    static class UpstreamException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        UpstreamException(String url, int status) {
+            super("Upstream " + url + " answered with status " + status);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Thrown (as the cause of a failed future) when the circuit breaker of the
+     * host is open and the upstream was not called at all
+     */
+    static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final long retryAfterMs;
+
+        CircuitOpenException(String host, long retryAfterMs) {
+            super("Upstream " + host + " is failing, not calling it for now");
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        /**
+         * @return a 503 for the client, with Retry-After set to when the breaker lets calls through again
+         */
+        Response toResponse() {
+            return Response.serviceUnavailable((int) Math.max(1, (retryAfterMs + 999) / 1000));
+        }
+    }
+
+    /**
+     * Calls to one upstream host
+     */
+    static final class HostMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder hedges = new LongAdder();
+        final LongAdder shortCircuited = new LongAdder();
+        final CircuitBreaker breaker = new CircuitBreaker(ServerConfig.BREAKER_WINDOW,
+                ServerConfig.BREAKER_MIN_CALLS, ServerConfig.BREAKER_FAILURE_RATE, ServerConfig.BREAKER_SLOW_CALL_MS,
+                ServerConfig.BREAKER_SLOW_CALL_RATE, ServerConfig.BREAKER_OPEN_MS, ServerConfig.BREAKER_PROBES);
+        private volatile long hedgeDelayNanos = -1;
+        private volatile long hedgeDelayUpdated;
+
+        /**
+         * @return how long to wait before hedging a call, -1 to not hedge it
+         */
+        long hedgeDelayNanos() {
+            if (ServerConfig.HEDGE_QUANTILE <= 0 || latency.count() < HEDGE_MIN_CALLS
+                    || hedges.sum() * 100 >= latency.count() * ServerConfig.HEDGE_BUDGET_PERCENT) {
+                return -1;
+            }
+            long now = System.nanoTime();
+            if (hedgeDelayNanos < 0 || now - hedgeDelayUpdated > 1_000_000_000L) {
+                // the quantile sums all buckets, once a second is enough
+                double seconds = latency.quantileSeconds(ServerConfig.HEDGE_QUANTILE)[0];
+                hedgeDelayNanos = Math.max(1_000_000L, (long) (seconds * 1e9));
+                hedgeDelayUpdated = now;
+            }
+            return hedgeDelayNanos;
+        }
+    }
+
+    /**
+     * Calls to a host before its latency is trusted for hedging
+     */
+    private static final int HEDGE_MIN_CALLS = 20;
+
+    private final HttpClient client;
+    private final Duration timeout;
+    private final Map<String, HostMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * @param connectTimeoutMs how long to wait for a connection to the upstream
+     * @param timeoutMs        how long to wait for the upstream response
+     */
+    UpstreamClient(long connectTimeoutMs, long timeoutMs) {
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.timeout = Duration.ofMillis(timeoutMs);
+    }
+
+    /**
+     * Starts a GET request
+     *
+     * @param url absolute URL to fetch
+     * @return completes with the body, or exceptionally with an IOException
+     * (UpstreamException for non 2xx answers, HttpTimeoutException on timeout)
+     */
+    CompletableFuture<String> get(String url) {
+        return send(url, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8), body -> { });
+    }
+
+    /**
+     * Starts a GET request whose body is read while it arrives
+     *
+     * @param url absolute URL to fetch
+     * @return completes with the body stream as soon as the status and header
+     * are there, the caller has to close it; fails like get
+     */
+    CompletableFuture<InputStream> stream(String url) {
+        return send(url, HttpResponse.BodyHandlers.ofInputStream(), EventLoop::closeQuietly);
+    }
+
+    /**
+     * @param discard releases the body of a non 2xx answer
+     */
+    private <T> CompletableFuture<T> send(String url, HttpResponse.BodyHandler<T> handler, Consumer<T> discard) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(timeout)
+                    .header("Accept", "application/json")
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(new IOException("Invalid upstream URL: " + url, e));
+        }
+
+        String hostName = String.valueOf(request.uri().getHost());
+        HostMetrics host = metrics.computeIfAbsent(hostName, h -> new HostMetrics());
+        if (!host.breaker.tryAcquire()) {
+            host.shortCircuited.increment();
+            return CompletableFuture.failedFuture(new CircuitOpenException(hostName, host.breaker.retryAfterMs()));
+        }
+        long start = System.nanoTime();
+        return hedged(request, url, handler, discard, host)
+                .whenComplete((body, error) -> {
+                    long nanos = System.nanoTime() - start;
+                    host.latency.record(nanos);
+                    if (error != null) {
+                        host.failures.increment();
+                    }
+                    host.breaker.record(nanos, error != null && isHostFailure(unwrap(error)));
+                });
+    }
+
+    /**
+     * Sends the request and a second time if it is slow or fails early. The
+     * hedge is sent at most once, after the delay or when the first call fails
+     * on the host's side, whichever comes first.
+     *
+     * @return completes with the first successful answer, or with the first
+     * call's failure once both calls failed (or the hedge was not sent)
+     */
+    private <T> CompletableFuture<T> hedged(HttpRequest request, String url, HttpResponse.BodyHandler<T> handler,
+                                            Consumer<T> discard, HostMetrics host) {
+        long delay = host.hedgeDelayNanos();
+        if (delay < 0) {
+            return call(request, url, handler, discard);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<Throwable> firstError = new AtomicReference<>();
+        // the first call and the hedge; a hedge that is not sent counts as failed
+        AtomicInteger outstanding = new AtomicInteger(2);
+        Runnable failed = () -> {
+            if (outstanding.decrementAndGet() == 0) {
+                result.completeExceptionally(firstError.get());
+            }
+        };
+        BiConsumer<T, Throwable> firstWins = (body, error) -> {
+            if (error != null) {
+                failed.run();
+            } else if (!result.complete(body)) {
+                discard.accept(body); // the other call was faster
+            }
+        };
+        AtomicBoolean hedgeDecided = new AtomicBoolean();
+        Runnable hedge = () -> {
+            if (!hedgeDecided.compareAndSet(false, true)) {
+                return;
+            }
+            Throwable error = firstError.get();
+            if (result.isDone() || host.hedgeDelayNanos() < 0 || (error != null && !isHostFailure(unwrap(error)))) {
+                failed.run();
+                return;
+            }
+            host.hedges.increment();
+            call(request, url, handler, discard).whenComplete(firstWins);
+        };
+
+        call(request, url, handler, discard).whenComplete((body, error) -> {
+            if (error != null) {
+                firstError.set(error);
+                hedge.run(); // no need to wait for the delay
+            }
+            firstWins.accept(body, error);
+        });
+        CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(hedge);
+        return result;
+    }
+
+    private <T> CompletableFuture<T> call(HttpRequest request, String url, HttpResponse.BodyHandler<T> handler,
+                                          Consumer<T> discard) {
+        return client.sendAsync(request, handler)
+                .thenApply(response -> {
+                    if (response.statusCode() / 100 != 2) {
+                        discard.accept(response.body());
+                        throw new CompletionException(new UpstreamException(url, response.statusCode()));
+                    }
+                    return response.body();
+                });
+    }
+
+    /**
+     * @param error the failure of a call
+     * @return false for answers that are the caller's fault (e.g. 404 for an unknown user),
+     * they say nothing about the health of the host
+     */
+    private static boolean isHostFailure(Throwable error) {
+        if (error instanceof UpstreamException) {
+            int status = ((UpstreamException) error).status;
+            return status >= 500 || status == 429;
+        }
+        return true;
+    }
+
+    /**
+     * @return call metrics per upstream host
+     */
+    Map<String, HostMetrics> metrics() {
+        return metrics;
+    }
+
+    /**
+     * @param error the failure of a future returned by get
+     * @return the underlying exception without CompletionException or ExecutionException wrappers
+     */
+    static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * @param error the failure of a future returned by get
+     * @return a message for the user, some network errors have none
+     */
+    static String describe(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+}
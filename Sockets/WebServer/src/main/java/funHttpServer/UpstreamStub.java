@@ -0,0 +1,260 @@
+package funHttpServer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for GitHub and OpenWeather, so "/github", "/weather" and
+ * Network/HTTP-JSON's API can be called without a network, e.g. by the
+ * LoadGenerator. Point the server at it with funHttpServer.githubBaseUrl and
+ * funHttpServer.weatherBaseUrl set to url(), API with github.baseUrl.
+ *
+ * It replays recorded JSON answers, the fixtures in upstream-stub/ on the
+ * classpath or files of the same name in a directory of new recordings:
+ * "/users/{user}/repos" (github-repos.json), "/repos/{user}/{repo}/branches"
+ * (github-branches.json) and "/data/2.5/weather?q={city}" (openweather.json).
+ * ${user}, ${repo} and ${city} in a fixture are replaced by the request's.
+ * Anything else is a 404 with not-found.json.
+ *
+ * To reproduce a slow or failing upstream, every answer is delayed by
+ * latencyMs plus a random share of jitterMs and the share errorRate of the
+ * answers are a 503. The randomness comes from seed, so a run with one
+ * client thread is repeatable. The repository list has repos entries, the
+ * recorded ones repeated with new ids and names, to vary the payload size.
+ */
+class UpstreamStub {
+
+    static {
+        // the JDK server writes head and body separately, with Nagle every answer would wait for a delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private static final byte[] UNAVAILABLE =
+            "{\"message\":\"Service unavailable (stub)\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService threads;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double errorRate;
+    private final Random random;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private final String repos;
+    private final String branches;
+    private final String weather;
+    private final byte[] notFound;
+
+    /**
+     * Starts a stub that answers right away and never fails, on a free port
+     *
+     * @param repos repositories in a "/users/{user}/repos" answer
+     */
+    UpstreamStub(int repos) throws IOException {
+        this(0, repos, 0, 0, 0, 42, null);
+    }
+
+    /**
+     * Starts the stub on the loopback interface
+     *
+     * @param port      0 picks a free one
+     * @param repos     repositories in a "/users/{user}/repos" answer
+     * @param latencyMs every answer is delayed by this
+     * @param jitterMs  and by up to this much more, evenly distributed
+     * @param errorRate share of answers that are a 503, e.g. 0.05
+     * @param seed      of the random delays and errors
+     * @param fixtures  directory with recorded answers that replace the built-in ones, may be null
+     */
+    UpstreamStub(int port, int repos, long latencyMs, long jitterMs, double errorRate, long seed, Path fixtures)
+            throws IOException {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+        this.random = new Random(seed);
+        this.repos = repeat(fixture(fixtures, "github-repos.json"), repos);
+        this.branches = fixture(fixtures, "github-branches.json");
+        this.weather = fixture(fixtures, "openweather.json");
+        this.notFound = fixture(fixtures, "not-found.json").getBytes(StandardCharsets.UTF_8);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        threads = Executors.newCachedThreadPool(EventLoopServer.namedThreads("upstream-stub-"));
+        server.createContext("/", this::handle);
+        server.setExecutor(threads);
+        server.start();
+    }
+
+    /**
+     * Starts a stub set with system properties: stub.port, stub.repos,
+     * stub.latencyMs, stub.jitterMs, stub.errorRate, stub.seed, stub.fixtures
+     */
+    static UpstreamStub fromProperties() throws IOException {
+        String fixtures = System.getProperty("stub.fixtures");
+        return new UpstreamStub(Integer.getInteger("stub.port", 0), Integer.getInteger("stub.repos", 30),
+                Long.getLong("stub.latencyMs", 0), Long.getLong("stub.jitterMs", 0),
+                Double.parseDouble(System.getProperty("stub.errorRate", "0")), Long.getLong("stub.seed", 42),
+                fixtures == null ? null : Paths.get(fixtures));
+    }
+
+    /**
+     * Runs the stub on its own, e.g. gradle UpstreamStub -Dstub.port=9100 -Dstub.latencyMs=200
+     */
+    public static void main(String[] args) throws IOException {
+        UpstreamStub stub = fromProperties();
+        System.out.println("Upstream stub at " + stub.url() + ", start the servers with -DfunHttpServer.githubBaseUrl="
+                + stub.url() + " -DfunHttpServer.weatherBaseUrl=" + stub.url() + " or -Dgithub.baseUrl=" + stub.url());
+    }
+
+    /**
+     * @return base URL of the stub, ends with "/"
+     */
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    void stop() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    /**
+     * @return requests answered so far
+     */
+    long requests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return requests answered with an injected 503
+     */
+    long errors() {
+        return errors.sum();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        double roll;
+        long delay;
+        synchronized (random) {
+            roll = random.nextDouble();
+            delay = latencyMs + (jitterMs > 0 ? (long) (random.nextDouble() * jitterMs) : 0);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+                return;
+            }
+        }
+        if (roll < errorRate) {
+            errors.increment();
+            send(exchange, 503, UNAVAILABLE);
+            return;
+        }
+
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if (path.length == 4 && path[1].equals("users") && path[3].equals("repos")) {
+            send(exchange, 200, repos.replace("${user}", name(path[2])));
+        } else if (path.length == 5 && path[1].equals("repos") && path[4].equals("branches")) {
+            send(exchange, 200, branches.replace("${user}", name(path[2])).replace("${repo}", name(path[3])));
+        } else if (exchange.getRequestURI().getPath().equals("/data/2.5/weather")) {
+            send(exchange, 200, weather.replace("${city}", jsonText(city(exchange))));
+        } else {
+            send(exchange, 404, notFound);
+        }
+    }
+
+    /**
+     * @return the user or repository name of the path, limited to what GitHub allows in one
+     */
+    private static String name(String segment) {
+        return segment.replaceAll("[^A-Za-z0-9._-]", "");
+    }
+
+    private static String city(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                if (pair.startsWith("q=")) {
+                    return URLDecoder.decode(pair.substring(2), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return "";
+    }
+
+    /**
+     * @return the text escaped to go between the quotes of a JSON string
+     */
+    private static String jsonText(String text) {
+        String quoted = JSONObject.quote(text);
+        return quoted.substring(1, quoted.length() - 1);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        send(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String fixture(Path directory, String name) throws IOException {
+        if (directory != null && Files.isRegularFile(directory.resolve(name))) {
+            return Files.readString(directory.resolve(name));
+        }
+        try (InputStream in = UpstreamStub.class.getResourceAsStream("/upstream-stub/" + name)) {
+            if (in == null) {
+                throw new IOException("Fixture upstream-stub/" + name + " is not on the classpath");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return the recorded repositories repeated until there are count, the copies with new ids and names
+     */
+    private static String repeat(String recorded, int count) {
+        JSONArray fixture = new JSONArray(recorded);
+        if (fixture.isEmpty()) {
+            return recorded;
+        }
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject repo = new JSONObject(fixture.getJSONObject(i % fixture.length()).toString());
+            if (i >= fixture.length()) {
+                String name = repo.getString("name") + "-" + i / fixture.length();
+                repo.put("id", repo.getLong("id") + i);
+                repo.put("name", name);
+                repo.put("full_name", "${user}/" + name);
+            }
+            list.put(repo);
+        }
+        return list.toString();
+    }
+}
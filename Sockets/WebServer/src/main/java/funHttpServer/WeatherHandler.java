@@ -0,0 +1,120 @@
+package funHttpServer;
+
+import org.json.JSONObject;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * "/weather?city=London&unit=c" shows the current temperature of a city. Uses
+ * live data from OpenWeatherMap if an API key is set, otherwise mock data.
+ * Responses are cached for 10 minutes per city and unit, see ExpiringCache,
+ * and the OpenWeather call is asynchronous.
+ *
+ * While the circuit breaker of OpenWeather is open (see UpstreamClient) the
+ * last value in the cache is served, however old it is, instead of an error.
+ */
+class WeatherHandler implements AsyncRouteHandler {
+
+    private static final String API_KEY = System.getenv("OPENWEATHER_API_KEY");
+
+    /**
+     * no key and the real OpenWeather: show mock data
+     */
+    private static final boolean MOCK = (API_KEY == null || API_KEY.isEmpty())
+            && ServerConfig.WEATHER_BASE_URL.equals(ServerConfig.OPENWEATHER_URL);
+
+    static {
+        if (MOCK) {
+            System.out.println("Error: OPENWEATHER_API_KEY environment variable is not set.");
+            System.out.println("Please set it to your OpenWeatherMap API key or leave blank to use mock data.");
+        }
+    }
+
+    /**
+     * Shared by all requests, keyed by city and units
+     */
+    static final ExpiringCache<String> weatherCache = new ExpiringCache<>(
+            ServerConfig.WEATHER_CACHE_SIZE, ServerConfig.WEATHER_TTL_MS, ServerConfig.WEATHER_STALE_MS);
+
+    private final UpstreamClient upstream;
+
+    /**
+     * @param upstream used to make the OpenWeather call
+     */
+    WeatherHandler(UpstreamClient upstream) {
+        this.upstream = upstream;
+    }
+
+    @Override
+    public CompletableFuture<Response> handleAsync(Request request) {
+        try {
+            QueryParams queryPairs = request.queryParams();
+            if (!queryPairs.has("city") || !queryPairs.has("unit")) {
+                return CompletableFuture.completedFuture(
+                        Response.badRequest(Response.TEXT, "Missing parameters. Usage: /weather?city=London&unit=c"));
+            }
+            String city = queryPairs.get("city");
+            String unit = queryPairs.get("unit").toLowerCase();
+            // Use "metric" for Celsius and "imperial" for Fahrenheit
+            String unitsParam = unit.equals("f") ? "imperial" : "metric";
+            // Build a cache key based on city and units
+            String cacheKey = city.toLowerCase() + "_" + unitsParam;
+
+            // Served from the cache while it is fresh, concurrent misses for the same key share one call
+            return weatherCache.get(cacheKey, () -> loadWeather(city, unitsParam))
+                    .thenApply(weatherResponse -> render(weatherResponse, city, unit))
+                    .exceptionally(e -> lastGood(e, cacheKey, city, unit));
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(error(e));
+        }
+    }
+
+    private static Response render(String weatherResponse, String city, String unit) {
+        // Parse the JSON response from either the API or mock data
+        JSONObject jsonObj = new JSONObject(weatherResponse);
+        double temp = jsonObj.getJSONObject("main").getDouble("temp");
+        String unitSymbol = unit.equals("f") ? "°F" : "°C";
+
+        return Response.ok(Response.TEXT, "The current temperature in " + city + " is " + temp + unitSymbol + ".");
+    }
+
+    /**
+     * @return the last cached weather if OpenWeather is not being called right now, otherwise the error
+     */
+    private static Response lastGood(Throwable e, String cacheKey, String city, String unit) {
+        Throwable cause = UpstreamClient.unwrap(e);
+        if (!(cause instanceof UpstreamClient.CircuitOpenException)) {
+            return error(cause);
+        }
+        String cached = weatherCache.getIfPresent(cacheKey);
+        if (cached == null) {
+            return ((UpstreamClient.CircuitOpenException) cause).toResponse();
+        }
+        return render(cached, city, unit).header("Warning", "110 - \"Response is Stale\"");
+    }
+
+    private static Response error(Throwable e) {
+        return Response.serverError("Unexpected error: " + UpstreamClient.describe(e));
+    }
+
+    /**
+     * Calls OpenWeather, or returns mock data if there is no API key
+     *
+     * @param city       name of the city
+     * @param unitsParam metric or imperial
+     * @return completes with the JSON response
+     */
+    private CompletableFuture<String> loadWeather(String city, String unitsParam) {
+        if (MOCK) {
+            // Use a mock response JSON string
+            return CompletableFuture.completedFuture("{\"main\":{\"temp\":20}}");
+        }
+        String url = ServerConfig.WEATHER_BASE_URL + "data/2.5/weather?q=" +
+                URLEncoder.encode(city, StandardCharsets.UTF_8) +
+                "&appid=" + (API_KEY == null ? "" : API_KEY) +
+                "&units=" + unitsParam;
+        return upstream.get(url);
+    }
+}
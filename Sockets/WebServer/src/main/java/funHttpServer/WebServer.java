@@ -5,9 +5,11 @@ You can also do some other simple GET requests:
 1) /random shows you a random picture (well random from the set defined)
 2) json shows you the response as JSON for /random instead the html page
 3) /file/filename shows you the raw file (not as HTML)
+   and /name serves the file www/name, e.g. /index.html
 4) /multiply?num1=3&num2=4 multiplies the two inputs and responses with the result
-5) /github?query=users/amehlhase316/repos (or other GitHub repo owners) will lead to receiving
-   JSON which will for now only be printed in the console. See the todo below
+5) /github?query=users/amehlhase316/repos (or other GitHub repo owners) lists the repositories
+   of the owner, the GitHub call is made asynchronously through UpstreamClient
+6) /metrics shows request counts and latencies in the Prometheus text format
 
 The reading of the request is done "manually", meaning no library that helps making things a 
 little easier is used. This is done so you see exactly how to pars the request and 
@@ -16,92 +18,156 @@ write a response back
 
 package funHttpServer;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.io.*;
 import java.net.*;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 
 
 class WebServer {
 
-    private static final String API_KEY = System.getenv("OPENWEATHER_API_KEY");
+    /**
+     * Shared client for the GitHub and OpenWeather calls, keeps connections open
+     */
+    private final UpstreamClient upstream = new UpstreamClient(
+            ServerConfig.UPSTREAM_CONNECT_TIMEOUT_MS, ServerConfig.UPSTREAM_TIMEOUT_MS);
 
-    static {
-        if (API_KEY == null || API_KEY.isEmpty()) {
-            System.out.println("Error: OPENWEATHER_API_KEY environment variable is not set.");
-            System.out.println("Please set it to your OpenWeatherMap API key or leave blank to use mock data.");
-        }
-    }
+    /**
+     * Tells the caches when a file in www/ changes
+     */
+    private final DirectoryWatcher www = watch("www");
 
-    private static final HashMap<String, WeatherCacheEntry> weatherCache = new HashMap<>();
+    /**
+     * Bytes written to clients, for /metrics
+     */
+    private final LongAdder bytesOut = new LongAdder();
 
-    private static class WeatherCacheEntry {
-        String response;
-        long timestamp;
+    /**
+     * Worker threads of the running server, queued requests are started there
+     */
+    private volatile Executor workers = Runnable::run;
 
-        WeatherCacheEntry(String response, long timestamp) {
-            this.response = response;
-            this.timestamp = timestamp;
-        }
-    }
+    /**
+     * Limits the requests handled at the same time, see ConcurrencyLimiter.
+     * Admitted requests go straight to the worker pool so it is started inline.
+     */
+    private final ConcurrencyLimiter admission = new ConcurrencyLimiter(ServerConfig.MAX_IN_FLIGHT,
+            ServerConfig.MAX_QUEUED, ServerConfig.MAX_QUEUE_WAIT_MS, Runnable::run);
+
+    private final Router router = limitRoutes(new Router()
+            .add("", new RootHandler(www))
+            .add("json", new RandomImageHandler(true))
+            .add("random", new RandomImageHandler(false))
+            .addPrefix(FileHandler.PREFIX, new FileHandler())
+            .add("multiply", new MultiplyHandler())
+            .add("github", new GithubHandler(upstream, Executors.newFixedThreadPool(
+                    ServerConfig.GITHUB_STREAM_THREADS, EventLoopServer.namedThreads("github-stream-"))))
+            .add("greet", new GreetHandler())
+            .add("weather", new WeatherHandler(upstream))
+            .add("metrics", new MetricsHandler(this::routes, upstream, bytesOut, admission))
+            // everything else is a file in www/ or not recognized at all
+            .otherwise(new StaticFileHandler("www", request ->
+                    Response.badRequest(Response.HTML, "I am not sure what you want me to do..."))));
+
+    /**
+     * Compresses text responses for clients that accept gzip or deflate
+     */
+    private final ContentEncoder encoder = new ContentEncoder(ServerConfig.COMPRESSION_MIN_SIZE,
+            new CompressedAssetCache(ServerConfig.COMPRESSED_CACHE_BYTES, ServerConfig.COMPRESSED_MAX_FILE_SIZE, www));
 
     public static void main(String[] args) {
         WebServer server = new WebServer(9000);
     }
 
     /**
-     * Main thread
+     * Main thread, starts the server and blocks until it is shut down
      *
      * @param port to listen on
      */
     public WebServer(int port) {
-        ServerSocket server = null;
-        Socket sock = null;
-        InputStream in = null;
-        OutputStream out = null;
-
         try {
-            server = new ServerSocket(port);
-            while (true) {
-                sock = server.accept();
-                out = sock.getOutputStream();
-                in = sock.getInputStream();
-                byte[] response = createResponse(in);
-                out.write(response);
-                out.flush();
-                in.close();
-                out.close();
-                sock.close();
-            }
+            EventLoopServer server = start(port);
+            // on Ctrl-C or kill: finish what is in progress instead of dropping it
+            Runtime.getRuntime().addShutdownHook(new Thread(
+                    () -> server.shutdownGracefully(ServerConfig.SHUTDOWN_GRACE_MS), "shutdown"));
+            server.join();
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (sock != null) {
-                try {
-                    server.close();
-                } catch (IOException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Used in the "/random" endpoint
+     * Creates a server without opening a socket, use start() to listen
+     */
+    WebServer() {
+    }
+
+    /**
+     * Starts the non-blocking front end. Connections are served by event loop
+     * threads and every request is answered by createResponse on a worker thread.
+     *
+     * @param port to listen on, 0 picks a free port
+     * @return the running server
+     */
+    EventLoopServer start(int port) throws IOException {
+        EventLoopServer server = new EventLoopServer(port, this);
+        workers = server.getWorkers();
+        server.start();
+        return server;
+    }
+
+    /**
+     * Gives the routes in ServerConfig.ROUTE_LIMITS their own concurrency limit
+     * and the routes in ServerConfig.RATE_LIMITS a request rate per client
+     *
+     * @param router with all routes
+     * @return the router
      */
-    private final static HashMap<String, String> _images = new HashMap<>() {
-        {
-            put("streets", "https://iili.io/JV1pSV.jpg");
-            put("bread", "https://iili.io/Jj9MWG.jpg");
+    private Router limitRoutes(Router router) {
+        for (String pair : ServerConfig.ROUTE_LIMITS.split(",")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+            int limit = Integer.parseInt(pair.substring(equals + 1).trim());
+            router.limit(pair.substring(0, equals).trim(), new ConcurrencyLimiter(limit, limit,
+                    ServerConfig.MAX_QUEUE_WAIT_MS, task -> workers.execute(task)));
+        }
+        for (String pair : ServerConfig.RATE_LIMITS.split(",")) {
+            int equals = pair.indexOf('=');
+            int colon = pair.indexOf(':', equals + 1);
+            if (equals < 0 || colon < 0) {
+                continue;
+            }
+            double rate = Double.parseDouble(pair.substring(equals + 1, colon).trim());
+            int burst = Integer.parseInt(pair.substring(colon + 1).trim());
+            router.rateLimit(pair.substring(0, equals).trim(),
+                    new RateLimiter(rate, burst, ServerConfig.RATE_LIMIT_IDLE_MS));
         }
-    };
+        return router;
+    }
 
-    private final Random random = new Random();
+    /**
+     * @param directory to watch
+     * @return the watcher or null if the directory cannot be watched, caches are off then
+     */
+    private static DirectoryWatcher watch(String directory) {
+        try {
+            return new DirectoryWatcher(Paths.get(directory));
+        } catch (IOException e) {
+            System.out.println("Cannot watch " + directory + ", pages will not be cached: " + e.getMessage());
+            return null;
+        }
+    }
 
     /**
      * Reads in socket stream and generates a response
@@ -110,314 +176,123 @@ class WebServer {
      * @return the byte encoded HTTP response
      */
     public byte[] createResponse(InputStream inStream) {
+        return createResponseAsync(inStream).join().toBytes();
+    }
 
-        byte[] response = null;
-        BufferedReader in = null;
-
+    /**
+     * Reads in socket stream and starts generating the response. Routes that
+     * call an upstream complete later without blocking the calling thread.
+     *
+     * @param inStream HTTP input stream from socket
+     * @return completes with the HTTP response
+     */
+    CompletableFuture<Response> createResponseAsync(InputStream inStream) {
         try {
-
-            // Read from socket's input stream. Must use an
-            // InputStreamReader to bridge from streams to a reader
-            in = new BufferedReader(new InputStreamReader(inStream, StandardCharsets.UTF_8));
-
-            // Get header and save the request from the GET line:
-            // example GET format: GET /index.html HTTP/1.1
-
-            String request = null;
-
-            boolean done = false;
-            while (!done) {
-                String line = in.readLine();
-
-                System.out.println("Received: " + line);
-
-                // find end of header("\n\n")
-                if (line == null || line.equals(""))
-                    done = true;
-                    // parse GET format ("GET <path> HTTP/1.1")
-                else if (line.startsWith("GET")) {
-                    int firstSpace = line.indexOf(" ");
-                    int secondSpace = line.indexOf(" ", firstSpace + 1);
-
-                    // extract the request, basically everything after the GET up to HTTP/1.1
-                    request = line.substring(firstSpace + 2, secondSpace);
+            // parse the bytes directly, example GET format: GET /index.html HTTP/1.1
+            RequestParser parser = new RequestParser(ServerConfig.MAX_HEADER_SIZE, ServerConfig.MAX_HEADER_COUNT);
+            ByteBuffer buffer = ByteBuffer.allocate(ServerConfig.MAX_HEADER_SIZE + 1);
+            RequestParser.State state = RequestParser.State.INCOMPLETE;
+            while (state == RequestParser.State.INCOMPLETE) {
+                int read = inStream.read(buffer.array(), buffer.position(), buffer.remaining());
+                if (read < 0) {
+                    state = parser.endOfInput(buffer);
+                } else {
+                    buffer.position(buffer.position() + read);
+                    state = parser.parse(buffer);
                 }
-
             }
-            System.out.println("FINISHED PARSING HEADER\n");
-
-            // Generate an appropriate response to the user
-            if (request == null) {
-                response = "<html>Illegal request: no GET</html>".getBytes();
-            } else {
-                // create output buffer
-                StringBuilder builder = new StringBuilder();
-                // NOTE: output from buffer is at the end
-
-                if (request.length() == 0) {
-                    // shows the default directory page
-
-                    // opens the root.html file
-                    String page = new String(readFileInBytes(new File("www/root.html")));
-                    // performs a template replacement in the page
-                    page = page.replace("${links}", buildFileList());
-
-                    // Generate response
-                    builder.append("HTTP/1.1 200 OK\n");
-                    builder.append("Content-Type: text/html; charset=utf-8\n");
-                    builder.append("\n");
-                    builder.append(page);
-
-                } else if (request.equalsIgnoreCase("json")) {
-                    // shows the JSON of a random image and sets the header name for that image
-
-                    // pick a index from the map
-                    int index = random.nextInt(_images.size());
-
-                    // pull out the information
-                    String header = (String) _images.keySet().toArray()[index];
-                    String url = _images.get(header);
-
-                    // Generate response
-                    builder.append("HTTP/1.1 200 OK\n");
-                    builder.append("Content-Type: application/json; charset=utf-8\n");
-                    builder.append("\n");
-                    builder.append("{");
-                    builder.append("\"header\":\"").append(header).append("\",");
-                    builder.append("\"image\":\"").append(url).append("\"");
-                    builder.append("}");
-
-                } else if (request.equalsIgnoreCase("random")) {
-                    // opens the random image page
-
-                    // open the index.html
-                    File file = new File("www/index.html");
-
-                    // Generate response
-                    builder.append("HTTP/1.1 200 OK\n");
-                    builder.append("Content-Type: text/html; charset=utf-8\n");
-                    builder.append("\n");
-                    builder.append(new String(readFileInBytes(file)));
-
-                } else if (request.contains("file/")) {
-                    // tries to find the specified file and shows it or shows an error
-
-                    // take the path and clean it. try to open the file
-                    File file = new File(request.replace("file/", ""));
-
-                    // Generate response
-                    if (file.exists()) { // success
-                        builder.append("HTTP/1.1 200 OK\n");
-                        builder.append("Content-Type: text/html; charset=utf-8\n");
-                        builder.append("\n");
-                        builder.append("Would theoretically be a file but removed this part, you do not have to do anything with it for the assignment");
-                    } else { // failure
-                        builder.append("HTTP/1.1 404 Not Found\n");
-                        builder.append("Content-Type: text/html; charset=utf-8\n");
-                        builder.append("\n");
-                        builder.append("File not found: " + file);
-                    }
-                } else if (request.contains("multiply?")) {
-                    try {
-                        // Split the query string into key-value pairs
-                        Map<String, String> queryPairs = splitQuery(request.replace("multiply?", ""));
-
-                        // Check if both parameters exist
-                        if (!queryPairs.containsKey("num1") || !queryPairs.containsKey("num2")) {
-                            builder.append("HTTP/1.1 400 Bad Request\n");
-                            builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                            builder.append("Missing parameters. Please provide both num1 and num2.");
-                        } else {
-                            try {
-                                // Try to parse the parameters as integers
-                                int num1 = Integer.parseInt(queryPairs.get("num1"));
-                                int num2 = Integer.parseInt(queryPairs.get("num2"));
-                                int result = num1 * num2;
-
-                                builder.append("HTTP/1.1 200 OK\n");
-                                builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                                builder.append("Result is: " + result);
-                            } catch (NumberFormatException ex) {
-                                // Handle the case where the parameters are not valid integers
-                                builder.append("HTTP/1.1 400 Bad Request\n");
-                                builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                                builder.append("Invalid input. Both num1 and num2 must be valid integers.");
-                            }
-                        }
-                    } catch (UnsupportedEncodingException ex) {
-                        // Handle any unexpected encoding issues
-                        builder.append("HTTP/1.1 500 Internal Server Error\n");
-                        builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                        builder.append("Error processing request: " + ex.getMessage());
-                    }
-                } else if (request.contains("github?")) {
-                    try {
-                        // Parse the query string and verify that the "query" parameter is present
-                        Map<String, String> queryPairs = splitQuery(request.replace("github?", ""));
-                        if (!queryPairs.containsKey("query")) {
-                            builder.append("HTTP/1.1 400 Bad Request\n");
-                            builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                            builder.append("Missing 'query' parameter.");
-                        } else {
-                            String query = queryPairs.get("query");
-                            String json = fetchURL("https://api.github.com/" + query);
-
-                            // Attempt to parse the fetched JSON response as an array
-                            JSONArray repos = new JSONArray(json);
-
-                            // Build an HTML response displaying each repository's full_name, id, and owner's login
-                            builder.append("HTTP/1.1 200 OK\n");
-                            builder.append("Content-Type: text/html; charset=utf-8\n\n");
-                            builder.append("<html><body>");
-                            builder.append("<h2>GitHub Repositories:</h2><ul>");
-
-                            for (int i = 0; i < repos.length(); i++) {
-                                JSONObject repo = repos.getJSONObject(i);
-                                String fullName = repo.getString("full_name");
-                                int id = repo.getInt("id");
-                                String ownerLogin = repo.getJSONObject("owner").getString("login");
-
-                                builder.append("<li>");
-                                builder.append("Full Name: " + fullName + "<br>");
-                                builder.append("ID: " + id + "<br>");
-                                builder.append("Owner: " + ownerLogin);
-                                builder.append("</li><br>");
-                            }
-
-                            builder.append("</ul></body></html>");
-                        }
-                    } catch (Exception e) {
-                        // If any error occurs (such as network issues or JSON parsing problems), return a 500 error
-                        builder.append("HTTP/1.1 500 Internal Server Error\n");
-                        builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                        builder.append("Error fetching or parsing GitHub response: " + e.getMessage());
-                    }
-                } else if (request.contains("greet?")) {
-                    try {
-                        Map<String, String> queryPairs = splitQuery(request.replace("greet?", ""));
-                        if (!queryPairs.containsKey("name") || !queryPairs.containsKey("lang")) {
-                            builder.append("HTTP/1.1 400 Bad Request\n");
-                            builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                            builder.append("Missing parameters. Usage: /greet?name=Alice&lang=en");
-                        } else {
-                            String name = queryPairs.get("name");
-                            String lang = queryPairs.get("lang").toLowerCase();
-                            String greeting;
-                            switch (lang) {
-                                case "fr":
-                                    greeting = "Bonjour";
-                                    break;
-                                case "es":
-                                    greeting = "Hola";
-                                    break;
-                                case "de":
-                                    greeting = "Hallo";
-                                    break;
-                                case "en":
-                                default:
-                                    greeting = "Hello";
-                                    break;
-                            }
-                            builder.append("HTTP/1.1 200 OK\n");
-                            builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                            builder.append(greeting + ", " + name + "!");
-                        }
-                    } catch (Exception e) {
-                        builder.append("HTTP/1.1 500 Internal Server Error\n");
-                        builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                        builder.append("Unexpected error: " + e.getMessage());
-                    }
-                } else if (request.contains("weather?")) {
-                    try {
-                        Map<String, String> queryPairs = splitQuery(request.replace("weather?", ""));
-                        if (!queryPairs.containsKey("city") || !queryPairs.containsKey("unit")) {
-                            builder.append("HTTP/1.1 400 Bad Request\n");
-                            builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                            builder.append("Missing parameters. Usage: /weather?city=London&unit=c");
-                        } else {
-                            String city = queryPairs.get("city");
-                            String unit = queryPairs.get("unit").toLowerCase();
-                            // Use "metric" for Celsius and "imperial" for Fahrenheit
-                            String unitsParam = unit.equals("f") ? "imperial" : "metric";
-                            // Build a cache key based on city and units
-                            String cacheKey = city.toLowerCase() + "_" + unitsParam;
-
-                            long now = System.currentTimeMillis();
-                            String weatherResponse = null;
-                            // Check if cached response is available and less than 10 minutes old
-                            if (weatherCache.containsKey(cacheKey)) {
-                                WeatherCacheEntry entry = weatherCache.get(cacheKey);
-                                if (now - entry.timestamp < 600000) {  // 10 minutes in milliseconds
-                                    weatherResponse = entry.response;
-                                }
-                            }
+            if (state == RequestParser.State.ERROR) {
+                return CompletableFuture.completedFuture(
+                        Response.badRequest(Response.HTML, "<html>Illegal request: " + parser.errorStatus() + "</html>"));
+            }
+            return createResponseAsync(parser.request("-"));
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(errorResponse(e));
+        }
+    }
 
-                            // If API key is missing, use mock data; otherwise, make an API call if needed.
-                            if (weatherResponse == null) {
-                                if (API_KEY == null || API_KEY.isEmpty()) {
-                                    // Use a mock response JSON string
-                                    weatherResponse = "{\"main\":{\"temp\":20}}";
-                                } else {
-                                    String url = "http://api.openweathermap.org/data/2.5/weather?q=" +
-                                            URLEncoder.encode(city, StandardCharsets.UTF_8) +
-                                            "&appid=" + API_KEY +
-                                            "&units=" + unitsParam;
-                                    weatherResponse = fetchURL(url);
-                                }
-                                // Cache the response (even the mock one) for consistency
-                                weatherCache.put(cacheKey, new WeatherCacheEntry(weatherResponse, now));
-                            }
+    /**
+     * Admission control in front of createResponseAsync: starts the request on
+     * a worker if the server has room, otherwise queues it or answers with 503
+     *
+     * @param request parsed by the connection
+     * @param workers runs the handlers
+     * @return completes with the HTTP response
+     */
+    CompletableFuture<Response> admit(Request request, Executor workers) {
+        return admission.submit(() -> CompletableFuture.supplyAsync(() -> createResponseAsync(request), workers)
+                .thenCompose(response -> response));
+    }
 
-                            // Parse the JSON response from either the API or mock data
-                            JSONObject jsonObj = new JSONObject(weatherResponse);
-                            double temp = jsonObj.getJSONObject("main").getDouble("temp");
-                            String unitSymbol = unit.equals("f") ? "°F" : "°C";
+    /**
+     * @param request parsed by the connection
+     * @return completes with the HTTP response
+     */
+    CompletableFuture<Response> createResponseAsync(Request request) {
+        // Generate an appropriate response to the user
+        if (!request.method.equals("GET")) {
+            return CompletableFuture.completedFuture(
+                    Response.badRequest(Response.HTML, "<html>Illegal request: no GET</html>"));
+        }
+        return respondAsync(request);
+    }
 
-                            builder.append("HTTP/1.1 200 OK\n");
-                            builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                            builder.append("The current temperature in " + city + " is " + temp + unitSymbol + ".");
-                        }
-                    } catch (Exception e) {
-                        builder.append("HTTP/1.1 500 Internal Server Error\n");
-                        builder.append("Content-Type: text/plain; charset=utf-8\n\n");
-                        builder.append("Unexpected error: " + e.getMessage());
-                    }
-                } else {
-                    // if the request is not recognized at all
+    /**
+     * Finds the handler for the request path and lets it create the response
+     *
+     * @param request parsed request
+     * @return completes with the response of the matching route, never exceptionally
+     */
+    CompletableFuture<Response> respondAsync(Request request) {
+        Router.Route route = router.route(request.path);
+        long start = route.metrics.start();
+        long wait = route.rateLimiter == null ? 0 : route.rateLimiter.acquire(request.client);
+        if (wait > 0) {
+            Response limited = Response.tooManyRequests(RateLimiter.retryAfterSeconds(wait));
+            route.metrics.finish(start, limited);
+            return CompletableFuture.completedFuture(limited);
+        }
+        CompletableFuture<Response> handled = route.limiter == null
+                ? route.handler.handleAsync(request)
+                : route.limiter.submit(() -> route.handler.handleAsync(request));
+        return handled
+                .exceptionally(e -> errorResponse(UpstreamClient.unwrap(e)))
+                // revalidate before compressing, a 304 needs no compressed body
+                .thenApply(response -> ConditionalGet.apply(request, response, encoder.coding(request, response)))
+                .thenApply(response -> ByteRanges.apply(request, response))
+                .thenApply(response -> encoder.encode(request, response))
+                .whenComplete((response, e) -> route.metrics.finish(start, response));
+    }
 
-                    builder.append("HTTP/1.1 400 Bad Request\n");
-                    builder.append("Content-Type: text/html; charset=utf-8\n");
-                    builder.append("\n");
-                    builder.append("I am not sure what you want me to do...");
-                }
+    private List<Router.Route> routes() {
+        return router.routes();
+    }
 
-                // Output
-                response = builder.toString().getBytes();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-            response = ("<html>ERROR: " + e.getMessage() + "</html>").getBytes();
-        }
+    /**
+     * @param bytes written to a client for one response
+     */
+    void recordBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
 
-        return response;
+    private static Response errorResponse(Throwable e) {
+        e.printStackTrace();
+        return new Response(500, "Internal Server Error", Response.HTML,
+                "<html>ERROR: " + e.getMessage() + "</html>");
     }
 
     /**
      * Method to read in a query and split it up correctly
      *
      * @param query parameters on path
-     * @return Map of all parameters and their specific values
-     * @throws UnsupportedEncodingException If the URLs aren't encoded with UTF-8
+     * @return Map of all parameters and their specific values, "" for a parameter without "="
      */
-    public static Map<String, String> splitQuery(String query) throws UnsupportedEncodingException {
+    public static Map<String, String> splitQuery(String query) {
         Map<String, String> query_pairs = new LinkedHashMap<String, String>();
-        // "q=hello+world%2Fme&bob=5"
-        String[] pairs = query.split("&");
-        // ["q=hello+world%2Fme", "bob=5"]
-        for (String pair : pairs) {
-            int idx = pair.indexOf("=");
-            query_pairs.put(URLDecoder.decode(pair.substring(0, idx), StandardCharsets.UTF_8),
-                    URLDecoder.decode(pair.substring(idx + 1), StandardCharsets.UTF_8));
+        // "q=hello+world%2Fme&bob=5", handlers use the QueryParams view directly
+        QueryParams params = new QueryParams(query, ServerConfig.MAX_QUERY_PARAMS);
+        for (int i = 0; i < params.size(); i++) {
+            query_pairs.put(params.name(i), params.value(i));
         }
         // {{"q", "hello world/me"}, {"bob","5"}}
         return query_pairs;
@@ -449,61 +324,13 @@ class WebServer {
     }
 
     /**
-     * Read bytes from a file and return them in the byte array. We read in blocks
-     * of 512 bytes for efficiency.
+     * Read bytes from a file and return them in the byte array. The array is
+     * allocated with the size of the file and filled in one go, so the content
+     * is copied only once. Only use it for small files that need to be changed
+     * (like root.html), files that are sent as they are should be a
+     * Response.file so they are streamed from disk.
      */
     public static byte[] readFileInBytes(File f) throws IOException {
-
-        FileInputStream file = new FileInputStream(f);
-        ByteArrayOutputStream data = new ByteArrayOutputStream(file.available());
-
-        byte[] buffer = new byte[512];
-        int numRead = file.read(buffer);
-        while (numRead > 0) {
-            data.write(buffer, 0, numRead);
-            numRead = file.read(buffer);
-        }
-        file.close();
-
-        byte[] result = data.toByteArray();
-        data.close();
-
-        return result;
-    }
-
-    /**
-     * a method to make a web request. Note that this method will block execution
-     * for up to 20 seconds while the request is being satisfied. Better to use a
-     * non-blocking request.
-     *
-     * @param aUrl the String indicating the query url for the OMDb api search
-     * @return the String result of the http request.
-     **/
-    public String fetchURL(String aUrl) {
-        StringBuilder sb = new StringBuilder();
-        URLConnection conn = null;
-        InputStreamReader in = null;
-        try {
-            URL url = new URL(aUrl);
-            conn = url.openConnection();
-            if (conn != null)
-                conn.setReadTimeout(20 * 1000); // timeout in 20 seconds
-            if (conn != null && conn.getInputStream() != null) {
-                in = new InputStreamReader(conn.getInputStream(), Charset.defaultCharset());
-                BufferedReader br = new BufferedReader(in);
-                if (br != null) {
-                    int ch;
-                    // read the next character until end of reader
-                    while ((ch = br.read()) != -1) {
-                        sb.append((char) ch);
-                    }
-                    br.close();
-                }
-            }
-            in.close();
-        } catch (Exception ex) {
-            System.out.println("Exception in url request:" + ex.getMessage());
-        }
-        return sb.toString();
+        return Files.readAllBytes(f.toPath());
     }
 }
@@ -0,0 +1,167 @@
+package httpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory-mapped files of the document root.
+ *
+ * A file up to maxFileSize is mapped once and its mapping is kept, so
+ * serving it again neither reads the file nor copies its content onto the
+ * heap: the caller writes the mapping straight to the socket. At most
+ * maxEntries mappings of together at most maxBytes are kept, the least
+ * recently used ones are dropped first (their memory is unmapped once the
+ * garbage collector frees the buffer).
+ *
+ * Every lookup compares the file's modification time and size with the
+ * mapping's, a changed file is mapped again. Files larger than maxFileSize
+ * are not mapped, lookup() returns null and the caller streams them. A file
+ * that is truncated while its mapping is being written makes the write fail;
+ * the caller then drops the mapping with evictIfChanged() and streams the rest.
+ */
+class DocumentRootCache {
+
+    private static final class Entry {
+        final MappedByteBuffer content;
+        final long lastModified;
+
+        Entry(MappedByteBuffer content, long lastModified) {
+            this.content = content;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final Path root;
+    private final long maxFileSize;
+    private final int maxEntries;
+    private final long maxBytes;
+    // access order: iteration starts at the least recently used mapping
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param root        directory the file names are relative to
+     * @param maxFileSize larger files are not mapped
+     * @param maxEntries  mappings kept at most
+     * @param maxBytes    bytes mapped at most, over all mappings
+     */
+    DocumentRootCache(Path root, long maxFileSize, int maxEntries, long maxBytes) {
+        this.root = root.toAbsolutePath().normalize();
+        this.maxFileSize = Math.min(maxFileSize, maxBytes);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param name file name relative to the document root
+     * @return the file, null if it is outside the document root
+     */
+    File resolve(String name) {
+        Path path = root.resolve(name).normalize();
+        return path.startsWith(root) ? path.toFile() : null;
+    }
+
+    /**
+     * @param name file name relative to the document root
+     * @param file as returned by resolve(name), must exist
+     * @return the content, ready to be written, null if the file is too large to be mapped
+     * @throws IOException if the file cannot be mapped
+     */
+    ByteBuffer lookup(String name, File file) throws IOException {
+        long lastModified = file.lastModified();
+        long size = file.length();
+        if (size > maxFileSize) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry != null && entry.lastModified == lastModified && entry.content.capacity() == size) {
+                hits++;
+                // a view of its own per caller, the mapping itself is shared
+                return entry.content.duplicate();
+            }
+        }
+
+        // mapped outside the lock, so a slow disk only holds up this request
+        MappedByteBuffer content;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        synchronized (this) {
+            misses++;
+            Entry old = entries.put(name, new Entry(content, lastModified));
+            if (old != null) {
+                mappedBytes -= old.content.capacity();
+            }
+            mappedBytes += content.capacity();
+            evict();
+        }
+        return content.duplicate();
+    }
+
+    /**
+     * Drops the mapping of a file that changed since it was mapped
+     *
+     * @param name file name relative to the document root
+     * @param file as returned by resolve(name)
+     * @return true if the file differs from its mapping, which is dropped then
+     */
+    synchronized boolean evictIfChanged(String name, File file) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.lastModified == file.lastModified() && entry.content.capacity() == file.length()) {
+            return false;
+        }
+        entries.remove(name);
+        mappedBytes -= entry.content.capacity();
+        return true;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || mappedBytes > maxBytes) && it.hasNext()) {
+            mappedBytes -= it.next().getValue().content.capacity();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return number of mappings kept
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return bytes mapped by the kept mappings
+     */
+    synchronized long mappedBytes() {
+        return mappedBytes;
+    }
+
+    /**
+     * @return lookups answered by a kept mapping
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return lookups that had to map the file
+     */
+    synchronized long misses() {
+        return misses;
+    }
+}
@@ -2,9 +2,35 @@ package httpServer;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 class WebServer {
 
+    /**
+     * Files up to this size are served from a memory mapping, larger ones are streamed
+     */
+    static final long MAX_MAPPED_FILE_SIZE = Long.getLong("httpServer.maxMappedFileSize", 16L << 20);
+
+    /**
+     * Mappings kept at most
+     */
+    static final int MAX_MAPPINGS = Integer.getInteger("httpServer.maxMappings", 256);
+
+    /**
+     * Bytes mapped at most, over all kept mappings
+     */
+    static final long MAX_MAPPED_BYTES = Long.getLong("httpServer.maxMappedBytes", 256L << 20);
+
+    // our docroot is the current dir
+    private final DocumentRootCache files =
+        new DocumentRootCache(Paths.get(""), MAX_MAPPED_FILE_SIZE, MAX_MAPPINGS, MAX_MAPPED_BYTES);
+
     // 
     public static void main(String args[]) {
         if (args.length != 1) {
@@ -20,52 +46,101 @@ class WebServer {
         ServerSocket    server = null;
         Socket          sock = null;
         InputStream     in = null;
-        OutputStream    out = null;
 
         //*** Open the server socket on the specified port
         //*** Loop forever accepting socket requests
-        //***   Get the response bytes from createResponse
-        //***   Write the bytes to the socket's output stream
+        //***   Write the response to the socket's channel (respond)
         //***   close streams and socket appropriatels
-    }
-
-
-    public byte[] createResponse(InputStream inStream) {
-
-        byte[] response = null;
-        BufferedReader in = null;
-
         try {
+            // opened through a channel, so the accepted sockets have one too
+            server = ServerSocketChannel.open().socket();
+            server.bind(new InetSocketAddress(port));
+            System.out.println("WebServer listening on port " + port);
+            while (true) {
+                try {
+                    sock = server.accept();
+                    in = sock.getInputStream();
+                    respond(in, sock.getChannel());
+                } catch (IOException | RuntimeException | InternalError e) {
+                    // only this request failed, keep accepting
+                    e.printStackTrace();
+                } finally {
+                    if (sock != null) {
+                        try {
+                            sock.close(); // closes in and the channel too
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Read from socket's input stream.  Must use an
-            // InputStreamReader to bridge from streams to a reader
-            in = new BufferedReader(
-                        new InputStreamReader(inStream, "UTF-8"));
+    /**
+     * Like createResponse, but writes the response to the channel. A file
+     * comes from its cached memory mapping, nothing of it is copied onto the
+     * heap; a file too large to be mapped is streamed with transferTo. If the
+     * file is truncated while its mapping is written, the write fails (with
+     * an IOException, or an InternalError when the mapping is read); the
+     * mapping is then dropped and what is left of the file is streamed.
+     */
+    public void respond(InputStream inStream, WritableByteChannel out)
+        throws IOException {
 
-            // Get header and save the filename from the GET line:
-            //    example GET format: GET /index.html HTTP/1.1
+        String filename = requestedFile(inStream);
+        if (filename == null) {
+            write(out, "<html>Illegal request: no GET</html>".getBytes());
+            return;
+        }
+        File file = files.resolve(filename);
+        if (file == null || !file.isFile()) {
+            write(out, ("<html>File not found: " +
+                        filename + "</html>").getBytes());
+            return;
+        }
+        ByteBuffer content = files.lookup(filename, file);
+        long position = 0;
+        if (content != null) {
+            try {
+                while (content.hasRemaining()) {
+                    out.write(content);
+                }
+                return;
+            } catch (IOException | InternalError e) {
+                if (!files.evictIfChanged(filename, file)) {
+                    throw e; // the client went away, not the file
+                }
+                position = content.position();
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        }
+    }
 
-            String filename = null;
+    private static void write(WritableByteChannel out, byte[] bytes)
+        throws IOException {
 
-            boolean done = false;
-            while (!done) {
-                String line = in.readLine();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
 
-System.out.println("Received: " + line);
-                if (line == null || line.equals(""))
-                    done = true;
 
-                else if (line.startsWith("GET")) {
-                    int firstSpace = line.indexOf(" ");
-                    int secondSpace = line.indexOf(" ", firstSpace+1);
+    public byte[] createResponse(InputStream inStream) {
 
-                    // skipt the leading / (our docroot is the current dir)
-                    filename = line.substring(firstSpace+2, secondSpace);
-                }
+        byte[] response = null;
 
-            }
-System.out.println("FINISHED\n");
+        try {
 
+            String filename = requestedFile(inStream);
 
             // Generate an appropriate response to the user
             if (filename == null) {
@@ -73,8 +148,8 @@ System.out.println("FINISHED\n");
                     "<html>Illegal request: no GET</html>".getBytes();
             } else {
             
-                File file = new File(filename);
-                if (!file.exists()) {
+                File file = files.resolve(filename);
+                if (file == null || !file.isFile()) {
                     response = ("<html>File not found: " +
                                 filename + "</html>").getBytes();
                 } else {
@@ -91,26 +166,51 @@ System.out.println("FINISHED\n");
         return response;
     }
 
-    /** Read bytes from a file and return them in the byte array.
-        We read in blocks of 512 bytes for efficiency.
-    */
-    public static byte[] readFileInBytes(File f)
+    /**
+     * Reads the request header
+     *
+     * @return the file name of the GET line, null if there is none
+     */
+    static String requestedFile(InputStream inStream)
         throws IOException {
 
-        FileInputStream file = new FileInputStream(f);
-        ByteArrayOutputStream data = new ByteArrayOutputStream(file.available());
+        // Read from socket's input stream.  Must use an
+        // InputStreamReader to bridge from streams to a reader
+        BufferedReader in = new BufferedReader(
+                    new InputStreamReader(inStream, "UTF-8"));
+
+        // Get header and save the filename from the GET line:
+        //    example GET format: GET /index.html HTTP/1.1
+
+        String filename = null;
+
+        boolean done = false;
+        while (!done) {
+            String line = in.readLine();
+
+            if (line == null || line.equals(""))
+                done = true;
+
+            else if (line.startsWith("GET")) {
+                int firstSpace = line.indexOf(" ");
+                int secondSpace = line.indexOf(" ", firstSpace+1);
+
+                // skipt the leading / (our docroot is the current dir)
+                filename = line.substring(firstSpace+2, secondSpace);
+            }
 
-        byte buffer[] = new byte[512];
-        int numRead = file.read(buffer);
-        while (numRead > 0) {
-            data.write(buffer, 0, numRead);
-            numRead = file.read(buffer);
         }
-        file.close();
+        return filename;
+    }
 
-        byte[] result =  data.toByteArray();
-        data.close();
+    /** Read bytes from a file and return them in the byte array.
+        The array gets the size of the file and is filled in one go, so
+        the content is copied once instead of through a 512 byte buffer,
+        a growing ByteArrayOutputStream and toByteArray.
+    */
+    public static byte[] readFileInBytes(File f)
+        throws IOException {
 
-        return result;
+        return Files.readAllBytes(f.toPath());
     }
 }
@@ -0,0 +1,126 @@
+package funHttpServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks ByteRanges against a small file in a temporary folder
+ */
+public class ByteRangesTest {
+
+    private static final String CONTENT = "0123456789abcdefghij";
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Response file() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("data.txt");
+        Files.write(file, CONTENT.getBytes(StandardCharsets.US_ASCII));
+        return Response.file(Response.TEXT, file, CONTENT.length()).header("ETag", ETAG);
+    }
+
+    private static Request get(String range, String ifRange) {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Range", range);
+        if (ifRange != null) {
+            headers.put("If-Range", ifRange);
+        }
+        return new Request("GET", "/data.txt", headers);
+    }
+
+    private static String body(Response response) {
+        return new String(response.toBodyBytes(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void suffixRangeIsTheEnd() {
+        List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=-5", 20);
+        assertEquals(1, ranges.size());
+        assertEquals(15, ranges.get(0).first);
+        assertEquals(19, ranges.get(0).last);
+        assertEquals(0, ByteRanges.parse("bytes=-50", 20).get(0).first);
+    }
+
+    @Test
+    public void openEndedRangeRunsToTheEnd() {
+        List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=12-", 20);
+        assertEquals(12, ranges.get(0).first);
+        assertEquals(19, ranges.get(0).last);
+    }
+
+    @Test
+    public void overlappingAndAdjacentRangesAreMerged() {
+        List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=10-12, 0-3,2-5,6-7", 20);
+        assertEquals(2, ranges.size());
+        assertEquals(0, ranges.get(0).first);
+        assertEquals(7, ranges.get(0).last);
+        assertEquals(10, ranges.get(1).first);
+        assertEquals(12, ranges.get(1).last);
+    }
+
+    @Test
+    public void tooManyRangesAreIgnored() {
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < ByteRanges.MAX_RANGES; i++) {
+            header.append(',').append(i * 2).append('-').append(i * 2);
+        }
+        assertEquals(ByteRanges.MAX_RANGES, ByteRanges.parse(header.toString(), 100).size());
+        assertNull(ByteRanges.parse(header + ",99-99", 100));
+    }
+
+    @Test
+    public void singleRangeIsPartialContent() throws IOException {
+        Response response = ByteRanges.apply(get("bytes=2-5", null), file());
+        assertEquals(206, response.status);
+        assertEquals("bytes 2-5/20", response.headerValue("Content-Range"));
+        assertEquals(ETAG, response.headerValue("ETag"));
+        assertEquals("2345", body(response));
+    }
+
+    @Test
+    public void rangeOfAFileRegionStartsAtItsPosition() throws IOException {
+        Path file = file().body.get(0).file();
+        Response region = new Response(200, "OK", Response.TEXT, List.of(BodyPart.of(file, 10, 10)));
+        Response response = ByteRanges.apply(get("bytes=0-2", null), region);
+        assertEquals("bytes 0-2/10", response.headerValue("Content-Range"));
+        assertEquals("abc", body(response));
+    }
+
+    @Test
+    public void severalRangesAreMultipart() throws IOException {
+        Response response = ByteRanges.apply(get("bytes=0-1,-2", null), file());
+        assertEquals(206, response.status);
+        assertTrue(response.contentType.startsWith("multipart/byteranges; boundary="));
+        String body = body(response);
+        assertTrue(body.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 18-19/20\r\n\r\nij\r\n"));
+    }
+
+    @Test
+    public void rangeBeyondTheEndIsNotSatisfiable() throws IOException {
+        Response response = ByteRanges.apply(get("bytes=20-30", null), file());
+        assertEquals(416, response.status);
+        assertEquals("bytes */20", response.headerValue("Content-Range"));
+    }
+
+    @Test
+    public void staleIfRangeGetsTheWholeFile() throws IOException {
+        Response response = ByteRanges.apply(get("bytes=0-1", "\"v0\""), file());
+        assertEquals(200, response.status);
+        assertEquals(CONTENT, body(response));
+
+        assertEquals(206, ByteRanges.apply(get("bytes=0-1", ETAG), file()).status);
+    }
+}
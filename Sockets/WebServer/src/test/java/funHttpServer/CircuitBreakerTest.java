@@ -0,0 +1,73 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives CircuitBreaker through its states with made up call durations
+ */
+public class CircuitBreakerTest {
+
+    private static final long FAST = 1_000_000L;
+    private static final long SLOW = 200_000_000L;
+
+    @Test
+    public void staysClosedBelowMinCalls() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 5, 0.5, 100, 0.5, 1000, 1);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.record(FAST, true);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    public void opensOnSlowCalls() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 100, 0.5, 1000, 1);
+        breaker.record(FAST, false);
+        breaker.record(FAST, false);
+        breaker.record(SLOW, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.record(SLOW, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+        assertTrue(breaker.retryAfterMs() > 0);
+    }
+
+    @Test
+    public void oldCallsLeaveTheWindow() {
+        CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.75, 100, 1, 1000, 1);
+        breaker.record(FAST, true);
+        breaker.record(FAST, true);
+        for (int i = 0; i < 10; i++) {
+            breaker.record(FAST, false);
+        }
+        breaker.record(FAST, true);
+        breaker.record(FAST, true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    public void halfOpenProbesCloseOrReopen() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, 2, 0.5, 100, 1, 50, 2);
+        breaker.record(FAST, true);
+        breaker.record(FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire()); // only two probes
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        breaker.record(FAST, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        breaker.record(FAST, false);
+        breaker.record(FAST, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+}
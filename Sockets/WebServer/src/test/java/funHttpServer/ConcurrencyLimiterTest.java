@@ -0,0 +1,69 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks when ConcurrencyLimiter answers waiting requests and gives slots back
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final long MAX_WAIT_MS = 200;
+
+    @Test
+    public void waiterGetsServiceUnavailableWhileSlotsAreHeld() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, MAX_WAIT_MS, Runnable::run);
+        CompletableFuture<Response> held = new CompletableFuture<>();
+        CompletableFuture<Response> first = limiter.submit(() -> held);
+        assertEquals(1, limiter.inFlight());
+
+        long start = System.nanoTime();
+        CompletableFuture<Response> waiting = limiter.submit(() -> CompletableFuture.completedFuture(
+                Response.ok(Response.TEXT, "late")));
+        assertEquals(1, limiter.queued());
+
+        Response response = waiting.get(MAX_WAIT_MS * 5, TimeUnit.MILLISECONDS);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(503, response.status);
+        assertTrue("answered after " + waitedMs + " ms", waitedMs >= MAX_WAIT_MS && waitedMs < MAX_WAIT_MS * 3);
+        assertFalse(first.isDone());
+        assertEquals(1, limiter.inFlight());
+        assertEquals(0, limiter.queued());
+        assertEquals(1, limiter.rejected());
+
+        // the expired waiter is gone, releasing the slot starts nothing
+        held.complete(Response.ok(Response.TEXT, "done"));
+        assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void streamedBodyHoldsTheSlotUntilItIsFinished() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, MAX_WAIT_MS, Runnable::run);
+        ChunkedBody page = new ChunkedBody(4);
+        Response streamed = limiter.submit(() -> CompletableFuture.completedFuture(
+                Response.chunked(Response.HTML, page))).getNow(null);
+        assertNotNull(streamed);
+        // the head is out, but the producer is still writing the body
+        assertEquals(1, limiter.inFlight());
+
+        CompletableFuture<Response> next = limiter.submit(() -> CompletableFuture.completedFuture(
+                Response.ok(Response.TEXT, "next")));
+        assertFalse(next.isDone());
+
+        assertTrue(page.write("<p>".getBytes(StandardCharsets.UTF_8)));
+        page.end();
+        assertEquals(200, next.get(1, TimeUnit.SECONDS).status);
+        assertEquals(0, limiter.inFlight());
+
+        ChunkedBody cancelled = new ChunkedBody(4);
+        limiter.submit(() -> CompletableFuture.completedFuture(Response.chunked(Response.HTML, cancelled)));
+        assertEquals(1, limiter.inFlight());
+        cancelled.cancel();
+        assertEquals(0, limiter.inFlight());
+    }
+}
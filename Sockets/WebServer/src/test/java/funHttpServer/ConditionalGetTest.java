@@ -0,0 +1,86 @@
+package funHttpServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks ConditionalGet on responses that ContentEncoder has not compressed yet
+ */
+public class ConditionalGetTest {
+
+    private static final String ETAG = "\"abc\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ContentEncoder encoder = new ContentEncoder(16, null);
+
+    private static Request get(String... headers) {
+        Map<String, String> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headers.length; i += 2) {
+            fields.put(headers[i], headers[i + 1]);
+        }
+        return new Request("GET", "/", fields);
+    }
+
+    private static Response page() {
+        return Response.ok(Response.HTML, "<html>" + "x".repeat(100) + "</html>").header("ETag", ETAG);
+    }
+
+    private Response revalidate(Request request, Response response) {
+        return encoder.encode(request, ConditionalGet.apply(request, response, encoder.coding(request, response)));
+    }
+
+    @Test
+    public void gzipVariantIsNotModified() {
+        Response response = revalidate(get("Accept-Encoding", "gzip", "If-None-Match", "\"abc-gzip\""), page());
+        assertEquals(304, response.status);
+        assertEquals("\"abc-gzip\"", response.headerValue("ETag"));
+        assertEquals("Accept-Encoding", response.headerValue("Vary"));
+        assertNull(response.headerValue("Content-Encoding"));
+    }
+
+    @Test
+    public void identityEtagDoesNotMatchTheGzipVariant() {
+        Response response = revalidate(get("Accept-Encoding", "gzip", "If-None-Match", ETAG), page());
+        assertEquals(200, response.status);
+        assertEquals("gzip", response.headerValue("Content-Encoding"));
+        assertEquals("\"abc-gzip\"", response.headerValue("ETag"));
+    }
+
+    @Test
+    public void identityIsNotModified() {
+        Response response = revalidate(get("If-None-Match", ETAG), page());
+        assertEquals(304, response.status);
+        assertEquals(ETAG, response.headerValue("ETag"));
+        assertEquals("Accept-Encoding", response.headerValue("Vary"));
+    }
+
+    @Test
+    public void currentCopyWinsOverRange() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("data.bin");
+        Files.write(file, "0123456789".getBytes(StandardCharsets.US_ASCII));
+        Response whole = Response.file("application/octet-stream", file, 10).header("ETag", ETAG);
+
+        // in the order WebServer applies them
+        Request current = get("If-None-Match", ETAG, "Range", "bytes=0-3");
+        Response response = ByteRanges.apply(current, ConditionalGet.apply(current, whole, null));
+        assertEquals(304, response.status);
+
+        Request stale = get("If-None-Match", "\"old\"", "Range", "bytes=0-3");
+        assertEquals(206, ByteRanges.apply(stale, ConditionalGet.apply(stale, whole, null)).status);
+
+        Request beyond = get("If-None-Match", ETAG, "Range", "bytes=50-60");
+        assertEquals(304, ByteRanges.apply(beyond, ConditionalGet.apply(beyond, whole, null)).status);
+    }
+}
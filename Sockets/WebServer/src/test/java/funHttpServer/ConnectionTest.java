@@ -0,0 +1,40 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives a Connection on a loopback socket without running its event loop
+ */
+public class ConnectionTest {
+
+    @Test
+    public void streamIsCancelledWhenTheClientIsGone() throws Exception {
+        try (ServerSocketChannel server = ServerSocketChannel.open();
+             Selector selector = Selector.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            try (SocketChannel client = SocketChannel.open(server.getLocalAddress());
+                 SocketChannel channel = server.accept()) {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                Connection connection = new Connection(new EventLoop(null, 0), key, channel);
+                connection.close();
+
+                ChunkedBody body = new ChunkedBody(1);
+                connection.send(Response.chunked(Response.HTML, body));
+                // the producer is told to stop instead of blocking on the full queue
+                assertFalse(body.write("<p>".getBytes(StandardCharsets.UTF_8)));
+                assertFalse(body.write("</p>".getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+    }
+}
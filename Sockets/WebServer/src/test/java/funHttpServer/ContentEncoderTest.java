@@ -0,0 +1,88 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that ContentEncoder compresses streamed bodies, whose length is unknown
+ */
+public class ContentEncoderTest {
+
+    private static Request accepting(String encodings) {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Accept-Encoding", encodings);
+        return new Request("GET", "/github", headers);
+    }
+
+    private static Response streamed(String... pieces) throws InterruptedException {
+        ChunkedBody body = new ChunkedBody(pieces.length + 1);
+        for (String piece : pieces) {
+            assertTrue(body.write(piece.getBytes(StandardCharsets.UTF_8)));
+        }
+        body.end();
+        return Response.chunked(Response.HTML, body);
+    }
+
+    /**
+     * @return the streamed body as the connection takes it, every piece must be sendable on its own
+     */
+    private static byte[] taken(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] piece = response.stream.next(); piece != null; piece = response.stream.next()) {
+            assertTrue(piece.length > 0);
+            out.write(piece);
+        }
+        assertTrue(response.stream.isDone());
+        return out.toByteArray();
+    }
+
+    private static String text(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    public void streamedBodyIsGzipped() throws Exception {
+        ContentEncoder encoder = new ContentEncoder(1024, null);
+        Response response = encoder.encode(accepting("gzip, deflate"), streamed("<ul>", "<li>a</li>", "</ul>"));
+        assertEquals("gzip", response.headerValue("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.headerValue("Vary"));
+        byte[] body = taken(response);
+        assertEquals("<ul><li>a</li></ul>", text(new GZIPInputStream(new ByteArrayInputStream(body))));
+    }
+
+    @Test
+    public void streamedBodyIsDeflated() throws Exception {
+        ContentEncoder encoder = new ContentEncoder(1024, null);
+        Response response = encoder.encode(accepting("deflate"), streamed("one ", "two"));
+        assertEquals("deflate", response.headerValue("Content-Encoding"));
+        assertEquals("one two", text(new InflaterInputStream(new ByteArrayInputStream(taken(response)))));
+    }
+
+    @Test
+    public void streamedBodyStaysPlainWithoutAcceptEncoding() throws Exception {
+        ContentEncoder encoder = new ContentEncoder(1024, null);
+        Response response = encoder.encode(accepting("identity"), streamed("plain"));
+        assertNull(response.headerValue("Content-Encoding"));
+        assertEquals("plain", new String(taken(response), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void smallBodyIsNotCompressed() {
+        ContentEncoder encoder = new ContentEncoder(1024, null);
+        Response response = encoder.encode(accepting("gzip"), Response.ok(Response.HTML, "<p>short</p>"));
+        assertNull(response.headerValue("Content-Encoding"));
+    }
+}
@@ -0,0 +1,119 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks ExpiringCache with loaders the test completes itself
+ */
+public class ExpiringCacheTest {
+
+    private static ExpiringCache.Loader<String> value(String value, AtomicInteger calls) {
+        return () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(value);
+        };
+    }
+
+    @Test
+    public void concurrentMissesShareOneLoad() {
+        ExpiringCache<String> cache = new ExpiringCache<>(10, 60_000, 0);
+        CompletableFuture<String> load = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        ExpiringCache.Loader<String> loader = () -> {
+            calls.incrementAndGet();
+            return load;
+        };
+        CompletableFuture<String> first = cache.get("k", loader);
+        CompletableFuture<String> second = cache.get("k", loader);
+        assertFalse(first.isDone());
+        load.complete("v");
+        assertEquals("v", first.join());
+        assertEquals("v", second.join());
+        assertEquals(1, calls.get());
+        assertEquals(1, cache.coalesced());
+
+        assertEquals("v", cache.get("k", loader).join());
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void failedLoadIsNotCached() {
+        ExpiringCache<String> cache = new ExpiringCache<>(10, 60_000, 0);
+        CompletableFuture<String> failed = cache.get("k",
+                () -> CompletableFuture.failedFuture(new IllegalStateException("down")));
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.loadFailures());
+
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("v", cache.get("k", value("v", calls)).join());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void expiredValueIsLoadedAgain() throws InterruptedException {
+        ExpiringCache<String> cache = new ExpiringCache<>(10, 20, 0);
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("old", cache.get("k", value("old", calls)).join());
+        Thread.sleep(30);
+        assertEquals("new", cache.get("k", value("new", calls)).join());
+        assertEquals(2, calls.get());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void staleValueIsServedWhileRefreshing() throws InterruptedException {
+        ExpiringCache<String> cache = new ExpiringCache<>(10, 20, 60_000);
+        AtomicInteger calls = new AtomicInteger();
+        cache.get("k", value("old", calls)).join();
+        Thread.sleep(30);
+
+        CompletableFuture<String> refresh = new CompletableFuture<>();
+        assertEquals("old", cache.get("k", () -> refresh).join());
+        assertEquals("old", cache.get("k", () -> refresh).join());
+        assertEquals(2, cache.staleHits());
+        assertEquals(1, cache.coalesced());
+
+        refresh.complete("new");
+        assertEquals("new", cache.get("k", value("unused", calls)).join());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws InterruptedException {
+        ExpiringCache<String> cache = new ExpiringCache<>(10, 60_000, 0);
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 10; i++) {
+            cache.get("k" + i, value("v" + i, calls)).join();
+            Thread.sleep(2);
+        }
+        cache.get("k0", value("unused", calls)).join(); // k1 and k2 are now the least recently used
+        Thread.sleep(2);
+        cache.get("k10", value("v10", calls)).join();
+
+        assertEquals(9, cache.size());
+        assertEquals(2, cache.evictions());
+        assertEquals("v0", cache.getIfPresent("k0"));
+        assertNull(cache.getIfPresent("k1"));
+        assertNull(cache.getIfPresent("k2"));
+        assertEquals("v10", cache.getIfPresent("k10"));
+    }
+
+    @Test
+    public void loadsInFlightAreNotEvicted() {
+        ExpiringCache<String> cache = new ExpiringCache<>(2, 60_000, 0);
+        CompletableFuture<String> load = new CompletableFuture<>();
+        for (int i = 0; i < 3; i++) {
+            cache.get("k" + i, () -> load);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.evictions());
+        load.complete("v");
+        assertEquals("v", cache.getIfPresent("k2"));
+    }
+}
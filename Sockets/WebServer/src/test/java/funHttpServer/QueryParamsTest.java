@@ -0,0 +1,89 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares QueryParams with URLDecoder, which WebServer.splitQuery used before
+ */
+public class QueryParamsTest {
+
+    private static String urlDecoder(String text) {
+        return URLDecoder.decode(text, StandardCharsets.UTF_8);
+    }
+
+    private static void assertDecodesLikeUrlDecoder(String value) {
+        assertEquals(urlDecoder(value), new QueryParams("q=" + value, 10).get("q"));
+    }
+
+    @Test
+    public void plusIsASpace() {
+        assertDecodesLikeUrlDecoder("hello+world");
+        assertDecodesLikeUrlDecoder("a%2Bb+c");
+        assertEquals("first name", new QueryParams("first+name=Ann", 10).name(0));
+        assertEquals("Ann", new QueryParams("first+name=Ann", 10).get("first name"));
+    }
+
+    @Test
+    public void escapesAreDecodedAsUtf8() {
+        assertDecodesLikeUrlDecoder("hello+world%2Fme");
+        assertDecodesLikeUrlDecoder("M%C3%BCnchen");
+        assertDecodesLikeUrlDecoder("%F0%9F%98%80%20ok");
+    }
+
+    @Test
+    public void rawNonAsciiTextIsKept() {
+        assertDecodesLikeUrlDecoder("München");
+        assertDecodesLikeUrlDecoder("東京+%E6%9D%B1");
+        assertDecodesLikeUrlDecoder("😀");
+    }
+
+    @Test
+    public void malformedEscapesAreKept() {
+        for (String value : new String[]{"100%", "%zz", "%4", "a%G1b+c"}) {
+            try {
+                urlDecoder(value);
+                fail("URLDecoder accepted " + value);
+            } catch (IllegalArgumentException expected) {
+                // QueryParams keeps the text instead of failing the request
+            }
+        }
+        assertEquals("100%", new QueryParams("q=100%", 10).get("q"));
+        assertEquals("%zz", new QueryParams("q=%zz", 10).get("q"));
+        assertEquals("%4", new QueryParams("q=%4", 10).get("q"));
+        assertEquals("a%G1b c", new QueryParams("q=a%G1b+c", 10).get("q"));
+    }
+
+    @Test
+    public void parametersWithoutValueOrName() {
+        QueryParams params = new QueryParams("flag&&a=&=b", 10);
+        assertEquals(3, params.size());
+        assertTrue(params.has("flag"));
+        assertEquals("", params.get("flag"));
+        assertEquals("", params.get("a"));
+        assertEquals("b", params.get(""));
+        assertNull(params.get("missing"));
+    }
+
+    @Test
+    public void onlyMaxParamsAreRead() {
+        QueryParams params = new QueryParams("a=1&b=2&c=3&d=4", 2);
+        assertEquals(2, params.size());
+        assertEquals("2", params.get("b"));
+        assertNull(params.get("c"));
+    }
+
+    @Test
+    public void lastOfRepeatedNamesWins() {
+        Map<String, String> pairs = WebServer.splitQuery("q=hello+world%2Fme&bob=5&q=again");
+        assertEquals(2, pairs.size());
+        assertEquals("again", pairs.get("q"));
+        assertEquals("5", pairs.get("bob"));
+        assertEquals("again", new QueryParams("q=hello+world%2Fme&bob=5&q=again", 10).get("q"));
+    }
+}
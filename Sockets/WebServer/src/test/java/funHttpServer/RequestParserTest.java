@@ -0,0 +1,68 @@
+package funHttpServer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds RequestParser whole requests and checks how their body is announced
+ */
+public class RequestParserTest {
+
+    private static RequestParser parse(String request) {
+        RequestParser parser = new RequestParser(8192, 100);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        buffer.put(request.getBytes(StandardCharsets.ISO_8859_1));
+        parser.parse(buffer);
+        return parser;
+    }
+
+    @Test
+    public void readsContentLength() {
+        RequestParser parser = parse("POST /echo HTTP/1.1\r\nHost: x\r\nContent-Length: 12\r\n\r\n");
+        assertEquals(12, parser.contentLength());
+        assertTrue(parser.keepAlive());
+    }
+
+    @Test
+    public void malformedContentLengthIsBadRequest() {
+        RequestParser parser = parse("POST /echo HTTP/1.1\r\nContent-Length: 12x\r\n\r\n");
+        assertEquals("400 Bad Request", parser.errorStatus());
+    }
+
+    @Test
+    public void repeatedContentLengthIsBadRequest() {
+        assertEquals("400 Bad Request",
+                parse("POST /echo HTTP/1.1\r\nContent-Length: 5\r\ncontent-length: 5\r\n\r\n").errorStatus());
+        assertEquals("400 Bad Request",
+                parse("POST /echo HTTP/1.1\r\nContent-Length: 5, 6\r\n\r\n").errorStatus());
+    }
+
+    @Test
+    public void whitespaceBeforeColonIsBadRequest() {
+        assertEquals("400 Bad Request",
+                parse("POST /echo HTTP/1.1\r\nContent-Length : 5\r\n\r\n").errorStatus());
+        assertEquals("400 Bad Request",
+                parse("GET / HTTP/1.1\r\nHost\t: x\r\n\r\n").errorStatus());
+    }
+
+    @Test
+    public void onlyLettersIgnoreCase() {
+        // '\r' is '-' without bit 0x20, it must not make this a Content-Length
+        RequestParser parser = parse("POST /echo HTTP/1.1\r\nContent\rLength: 5\r\n\r\n");
+        assertNull(parser.errorStatus());
+        assertEquals(0, parser.contentLength());
+        assertNull(parser.request("-").header("Content-Length"));
+        assertEquals(5, parse("POST /echo HTTP/1.1\r\ncONTENT-lENGTH: 5\r\n\r\n").contentLength());
+    }
+
+    @Test
+    public void chunkedBodyHasNoLength() {
+        RequestParser parser = parse("POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n");
+        assertNull(parser.errorStatus());
+        assertEquals(-1, parser.contentLength());
+    }
+}
@@ -0,0 +1,216 @@
+package funHttpServer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs UpstreamClient against a local stub server, no network needed
+ */
+public class UpstreamClientTest {
+
+    private HttpServer stub;
+    private String base;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger brokenCalls = new AtomicInteger();
+    private final AtomicInteger flakyCalls = new AtomicInteger();
+    private final AtomicInteger failingCalls = new AtomicInteger();
+
+    @Before
+    public void startStub() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.createContext("/repos", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            reply(exchange, 200, "[{\"full_name\":\"a/b\"}]");
+        });
+        stub.createContext("/big", exchange -> reply(exchange, 200, "x".repeat(1024 * 1024)));
+        stub.createContext("/missing", exchange -> reply(exchange, 404, "{\"message\":\"Not Found\"}"));
+        stub.createContext("/slow", exchange -> {
+            sleep(2000);
+            reply(exchange, 200, "late");
+        });
+        stub.createContext("/broken", exchange -> {
+            brokenCalls.incrementAndGet();
+            reply(exchange, 503, "down");
+        });
+        stub.createContext("/flaky", exchange -> {
+            if (exchange.getRequestURI().getQuery() != null && flakyCalls.incrementAndGet() == 1) {
+                // only the first call of the hedged request is slow
+                sleep(2000);
+            }
+            reply(exchange, 200, "ok");
+        });
+        stub.createContext("/failsOnce", exchange -> {
+            if (exchange.getRequestURI().getQuery() != null && failingCalls.incrementAndGet() == 1) {
+                // only the first call of the hedged request fails
+                reply(exchange, 503, "down");
+            } else {
+                reply(exchange, 200, "ok");
+            }
+        });
+        stub.setExecutor(Executors.newCachedThreadPool());
+        stub.start();
+        base = "http://127.0.0.1:" + stub.getAddress().getPort();
+    }
+
+    @After
+    public void stopStub() {
+        stub.stop(0);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Test
+    public void returnsBody() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        assertEquals("[{\"full_name\":\"a/b\"}]", client.get(base + "/repos").get());
+    }
+
+    @Test
+    public void readsLargeBodies() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        assertEquals(1024 * 1024, client.get(base + "/big").get().length());
+    }
+
+    @Test
+    public void reusesConnections() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        for (int i = 0; i < 5; i++) {
+            client.get(base + "/repos").get();
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void failsOnErrorStatus() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        try {
+            client.get(base + "/missing").get();
+            fail("expected an error for status 404");
+        } catch (ExecutionException e) {
+            Throwable cause = UpstreamClient.unwrap(e);
+            assertTrue(cause instanceof UpstreamClient.UpstreamException);
+            assertEquals(404, ((UpstreamClient.UpstreamException) cause).status);
+        }
+    }
+
+    @Test
+    public void timesOut() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 200);
+        long start = System.currentTimeMillis();
+        try {
+            client.get(base + "/slow").get();
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(UpstreamClient.unwrap(e) instanceof HttpTimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    @Test
+    public void doesNotBlockCaller() {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        long start = System.currentTimeMillis();
+        client.get(base + "/slow");
+        assertTrue(System.currentTimeMillis() - start < 1000);
+    }
+
+    @Test
+    public void rejectsInvalidUrl() {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        try {
+            client.get("http://bad host/").get();
+            fail("expected an error for an invalid url");
+        } catch (Exception e) {
+            assertTrue(UpstreamClient.unwrap(e) instanceof IOException);
+        }
+    }
+
+    @Test
+    public void opensCircuitWhenHostFails() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        for (int i = 0; i < ServerConfig.BREAKER_MIN_CALLS; i++) {
+            try {
+                client.get(base + "/broken").get();
+                fail("expected an error status");
+            } catch (ExecutionException e) {
+                assertTrue(UpstreamClient.unwrap(e) instanceof UpstreamClient.UpstreamException);
+            }
+        }
+        try {
+            client.get(base + "/broken").get();
+            fail("expected the breaker to be open");
+        } catch (ExecutionException e) {
+            assertTrue(UpstreamClient.unwrap(e) instanceof UpstreamClient.CircuitOpenException);
+        }
+        assertEquals(ServerConfig.BREAKER_MIN_CALLS, brokenCalls.get());
+    }
+
+    @Test
+    public void clientErrorsKeepCircuitClosed() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        for (int i = 0; i < ServerConfig.BREAKER_MIN_CALLS * 2; i++) {
+            try {
+                client.get(base + "/missing").get();
+                fail("expected an error status");
+            } catch (ExecutionException e) {
+                assertTrue(UpstreamClient.unwrap(e) instanceof UpstreamClient.UpstreamException);
+            }
+        }
+    }
+
+    @Test
+    public void hedgesSlowCall() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        for (int i = 0; i < 20; i++) {
+            client.get(base + "/flaky").get();
+        }
+        long start = System.currentTimeMillis();
+        assertEquals("ok", client.get(base + "/flaky?slow").get());
+        assertTrue(System.currentTimeMillis() - start < 1500);
+        assertEquals(1, client.metrics().get("127.0.0.1").hedges.sum());
+    }
+
+    @Test
+    public void hedgesCallThatFailsEarly() throws Exception {
+        UpstreamClient client = new UpstreamClient(1000, 5000);
+        for (int i = 0; i < 20; i++) {
+            client.get(base + "/failsOnce").get();
+        }
+        long start = System.currentTimeMillis();
+        assertEquals("ok", client.get(base + "/failsOnce?fail").get());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(2, failingCalls.get());
+        assertEquals(1, client.metrics().get("127.0.0.1").hedges.sum());
+        assertEquals(0, client.metrics().get("127.0.0.1").failures.sum());
+    }
+}
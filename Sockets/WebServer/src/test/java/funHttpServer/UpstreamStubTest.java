@@ -0,0 +1,70 @@
+package funHttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.Assert.*;
+
+/**
+ * Calls UpstreamStub the way the handlers and API call GitHub and OpenWeather
+ */
+public class UpstreamStubTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private UpstreamStub stub;
+
+    @After
+    public void stopStub() {
+        stub.stop();
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(URI.create(stub.url() + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void replaysFixturesForTheRequest() throws Exception {
+        stub = new UpstreamStub(5);
+        HttpResponse<String> repos = get("users/amehlhase316/repos");
+        assertEquals(200, repos.statusCode());
+        JSONArray list = new JSONArray(repos.body());
+        assertEquals(5, list.length());
+        assertEquals("amehlhase316", list.getJSONObject(0).getJSONObject("owner").getString("login"));
+        // the copies of the recorded repositories get names of their own
+        assertNotEquals(list.getJSONObject(0).getString("full_name"), list.getJSONObject(3).getString("full_name"));
+
+        JSONArray branches = new JSONArray(get("repos/amehlhase316/ser321examples/branches").body());
+        assertTrue(branches.getJSONObject(0).getJSONObject("commit").getString("url").contains("/ser321examples/"));
+
+        JSONObject weather = new JSONObject(get("data/2.5/weather?q=San+Jos%C3%A9&units=metric").body());
+        assertEquals("San José", weather.getString("name"));
+        assertTrue(weather.getJSONObject("main").has("temp"));
+
+        assertEquals(404, get("orgs/x").statusCode());
+        assertEquals(4, stub.requests());
+    }
+
+    @Test
+    public void injectsLatencyAndErrors() throws Exception {
+        stub = new UpstreamStub(0, 1, 100, 50, 0.5, 7, null);
+        long start = System.nanoTime();
+        int failed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (get("users/a/repos").statusCode() == 503) {
+                failed++;
+            }
+        }
+        assertTrue((System.nanoTime() - start) / 1_000_000 >= 1000);
+        assertEquals(failed, stub.errors());
+        assertTrue(failed > 0 && failed < 10);
+    }
+}
@@ -0,0 +1,109 @@
+package httpServer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks DocumentRootCache against files in a temporary document root
+ */
+public class DocumentRootCacheTest {
+
+    @Rule
+    public TemporaryFolder root = new TemporaryFolder();
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(root.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String text(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    @Test
+    public void mapsOnceThenHits() throws IOException {
+        DocumentRootCache cache = new DocumentRootCache(root.getRoot().toPath(), 1024, 4, 4096);
+        File file = write("a.html", "hello");
+        assertEquals("hello", text(cache.lookup("a.html", file)));
+        assertEquals("hello", text(cache.lookup("a.html", file)));
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void changedFileIsMappedAgain() throws IOException {
+        DocumentRootCache cache = new DocumentRootCache(root.getRoot().toPath(), 1024, 4, 4096);
+        File file = write("a.html", "hello");
+        cache.lookup("a.html", file);
+        write("a.html", "changed");
+        assertTrue(file.setLastModified(file.lastModified() + 2000));
+        assertEquals("changed", text(cache.lookup("a.html", file)));
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.size());
+        assertEquals(7, cache.mappedBytes());
+    }
+
+    @Test
+    public void truncatedFileIsEvicted() throws IOException {
+        DocumentRootCache cache = new DocumentRootCache(root.getRoot().toPath(), 1024, 4, 4096);
+        File file = write("a.html", "hello world");
+        cache.lookup("a.html", file);
+        assertFalse(cache.evictIfChanged("a.html", file));
+
+        write("a.html", "hello");
+        assertTrue(cache.evictIfChanged("a.html", file));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.mappedBytes());
+        assertFalse(cache.evictIfChanged("a.html", file));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        DocumentRootCache cache = new DocumentRootCache(root.getRoot().toPath(), 1024, 2, 4096);
+        File a = write("a", "a");
+        File b = write("b", "b");
+        File c = write("c", "c");
+        cache.lookup("a", a);
+        cache.lookup("b", b);
+        cache.lookup("a", a); // b is now the least recently used
+        cache.lookup("c", c);
+        assertEquals(2, cache.size());
+        cache.lookup("a", a);
+        assertEquals(2, cache.hits());
+        cache.lookup("b", b);
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    public void evictsOverByteBudget() throws IOException {
+        DocumentRootCache cache = new DocumentRootCache(root.getRoot().toPath(), 8, 10, 10);
+        cache.lookup("a", write("a", "12345678"));
+        cache.lookup("b", write("b", "1234"));
+        assertEquals(1, cache.size());
+        assertEquals(4, cache.mappedBytes());
+    }
+
+    @Test
+    public void largeFilesAreNotMapped() throws IOException {
+        DocumentRootCache cache = new DocumentRootCache(root.getRoot().toPath(), 4, 4, 4096);
+        assertNull(cache.lookup("big", write("big", "too large")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void staysInsideTheRoot() {
+        DocumentRootCache cache = new DocumentRootCache(root.getRoot().toPath(), 1024, 4, 4096);
+        assertNull(cache.resolve("../secret.txt"));
+        assertNotNull(cache.resolve("dir/../index.html"));
+    }
+}